@@ -0,0 +1,82 @@
+package com.deriklima.retronap.message;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+
+/**
+ * Measures the bytes allocated per frame while decoding a share flood (type 100 frames, as sent at
+ * login), using the JVM's per-thread allocation counter. Allocation depends on the JIT and escape
+ * analysis, so this runs outside the unit tests: {@code ./gradlew frameDecoderBenchmark}.
+ *
+ * <p>Reports the decoder alone, the decoder with the payload tokenized the way handlers read it,
+ * and {@link MessageFactory#createMessage} for comparison.
+ */
+public class FrameDecoderBenchmark {
+  private static final int FRAMES = 100_000;
+  private static final int WARMUP_ROUNDS = 20;
+  private static final String SHARE =
+      "\"C:\\\\MP3\\\\Artist - Some Fairly Long Song Title.mp3\""
+          + " 0123456789abcdef0123456789abcdef 5382144 192 44100 224";
+
+  public static void main(String[] args) throws IOException {
+    byte[] wire = frames(FRAMES);
+    MessageFactory factory = new MessageFactory(new FrameBufferPool());
+
+    for (int i = 0; i < WARMUP_ROUNDS; i++) {
+      decodeAll(factory.newDecoder(), wire, false);
+      decodeAll(factory.newDecoder(), wire, true);
+      createAll(factory, wire);
+    }
+
+    report("FrameDecoder.decode", () -> decodeAll(factory.newDecoder(), wire, false));
+    report("FrameDecoder.decode + tokens", () -> decodeAll(factory.newDecoder(), wire, true));
+    report("MessageFactory.createMessage", () -> createAll(factory, wire));
+  }
+
+  private static void report(String name, IoTask task) throws IOException {
+    com.sun.management.ThreadMXBean threads =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    long threadId = Thread.currentThread().threadId();
+    long before = threads.getThreadAllocatedBytes(threadId);
+    long start = System.nanoTime();
+    task.run();
+    long nanos = System.nanoTime() - start;
+    long bytes = threads.getThreadAllocatedBytes(threadId) - before;
+    System.out.printf(
+        "%-30s %8.1f bytes/frame %8.1f ns/frame%n",
+        name, (double) bytes / FRAMES, (double) nanos / FRAMES);
+  }
+
+  private static void decodeAll(FrameDecoder decoder, byte[] wire, boolean tokenize)
+      throws IOException {
+    ByteArrayInputStream in = new ByteArrayInputStream(wire);
+    Message m;
+    while ((m = decoder.decode(in)) != null) {
+      if (tokenize && m.numDataStringTokens() != 6) {
+        throw new IllegalStateException("Unexpected payload: " + m);
+      }
+    }
+  }
+
+  private static void createAll(MessageFactory factory, byte[] wire) throws IOException {
+    ByteArrayInputStream in = new ByteArrayInputStream(wire);
+    while (factory.createMessage(in) != null) {
+      // drain
+    }
+  }
+
+  private static byte[] frames(int count) {
+    byte[] frame = new Message(MessageTypes.CLIENT_SHARE_NOTIFICATION, SHARE).toByteArray();
+    ByteArrayOutputStream out = new ByteArrayOutputStream(frame.length * count);
+    for (int i = 0; i < count; i++) {
+      out.writeBytes(frame);
+    }
+    return out.toByteArray();
+  }
+
+  private interface IoTask {
+    void run() throws IOException;
+  }
+}
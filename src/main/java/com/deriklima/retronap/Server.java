@@ -1,10 +1,15 @@
 package com.deriklima.retronap;
 
 import com.deriklima.retronap.config.RetroNapConfig;
+import com.deriklima.retronap.config.RetroNapConfig.IoMode;
+import com.deriklima.retronap.session.NioSessionEngine;
 import com.deriklima.retronap.session.Session;
 import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
@@ -21,27 +26,37 @@ import org.springframework.stereotype.Component;
 public class Server implements Runnable {
   private final int port;
   private final int maxConnections;
+  private final IoMode ioMode;
   private final ApplicationContext applicationContext;
+  private final NioSessionEngine nioSessionEngine;
   private volatile boolean running = true;
   private ServerSocket serverSocket;
+  private ServerSocketChannel serverChannel;
   private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
 
-  public Server(RetroNapConfig config, ApplicationContext applicationContext) {
+  public Server(
+      RetroNapConfig config,
+      ApplicationContext applicationContext,
+      NioSessionEngine nioSessionEngine) {
     this.port = config.getServer().getPort();
     this.maxConnections = config.getServer().getMaxConnections();
+    this.ioMode = config.getServer().getIoMode();
     this.applicationContext = applicationContext;
+    this.nioSessionEngine = nioSessionEngine;
   }
 
   @Override
   public void run() {
-    log.info("Starting Napster Server (port={}, maxConnections={})", port, maxConnections);
+    log.info(
+        "Starting Napster Server (port={}, maxConnections={}, ioMode={})",
+        port,
+        maxConnections,
+        ioMode);
     try {
-      serverSocket = new ServerSocket(port, maxConnections);
-      while (running) {
-        Socket clientSocket = serverSocket.accept();
-        Session session = applicationContext.getBean(Session.class);
-        session.init(clientSocket);
-        executor.submit(session);
+      if (ioMode == IoMode.NIO) {
+        acceptSelectorConnections();
+      } else {
+        acceptBlockingConnections();
       }
     } catch (IOException e) {
       if (running) {
@@ -52,15 +67,45 @@ public class Server implements Runnable {
     }
   }
 
+  private void acceptBlockingConnections() throws IOException {
+    serverSocket = new ServerSocket(port, maxConnections);
+    while (running) {
+      Socket clientSocket = serverSocket.accept();
+      Session session = applicationContext.getBean(Session.class);
+      session.init(clientSocket);
+      executor.submit(session);
+    }
+  }
+
+  /** Accepts on this thread and hands every channel to the selector event loops. */
+  private void acceptSelectorConnections() throws IOException {
+    nioSessionEngine.start();
+    serverChannel = ServerSocketChannel.open();
+    serverChannel.bind(new InetSocketAddress(port), maxConnections);
+    while (running) {
+      SocketChannel clientChannel = serverChannel.accept();
+      try {
+        nioSessionEngine.accept(clientChannel);
+      } catch (IOException e) {
+        log.warn("Could not set up connection, dropping it: {}", e.getMessage());
+        clientChannel.close();
+      }
+    }
+  }
+
   public void shutdown() {
     running = false;
     try {
       if (serverSocket != null && !serverSocket.isClosed()) {
         serverSocket.close();
       }
+      if (serverChannel != null && serverChannel.isOpen()) {
+        serverChannel.close();
+      }
     } catch (IOException e) {
       log.error("Error closing server socket", e);
     }
+    nioSessionEngine.shutdown();
     executor.shutdown();
     try {
       if (!executor.awaitTermination(5, TimeUnit.SECONDS)) {
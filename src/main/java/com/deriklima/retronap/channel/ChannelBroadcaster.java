@@ -0,0 +1,114 @@
+package com.deriklima.retronap.channel;
+
+import com.deriklima.retronap.message.InvalidatedQueueException;
+import com.deriklima.retronap.message.Message;
+import com.deriklima.retronap.message.MessageContext;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Function;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Delivers channel chat off the sender's thread. Every channel has a lane that at most one
+ * (virtual) thread drains at a time, so all members see a channel's chat in the same order. The
+ * drain waits out a short window first; whatever arrived by then is handed to each member's queue
+ * in one call and so goes out in one write.
+ */
+@Slf4j
+final class ChannelBroadcaster {
+  private final Function<String, Set<MessageContext>> members;
+  private final long windowNanos;
+  private final Map<String, Lane> lanes = new ConcurrentHashMap<>();
+  private final ExecutorService executor =
+      Executors.newThreadPerTaskExecutor(
+          Thread.ofVirtual().name("channel-broadcast-", 0).factory());
+
+  private static final class Lane {
+    private final String channel;
+    private final Queue<Message> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+
+    private Lane(String channel) {
+      this.channel = channel;
+    }
+  }
+
+  /**
+   * @param members looks up the current members of a channel at delivery time
+   * @param windowMs how long a lane collects messages before delivering them, 0 delivers at once
+   */
+  ChannelBroadcaster(Function<String, Set<MessageContext>> members, int windowMs) {
+    this.members = members;
+    this.windowNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(windowMs, 0));
+  }
+
+  void broadcast(String channel, Message message) {
+    Lane lane = lanes.computeIfAbsent(channel, Lane::new);
+    lane.pending.add(message);
+    if (lane.scheduled.compareAndSet(false, true)) {
+      try {
+        executor.execute(() -> drain(lane));
+      } catch (RejectedExecutionException e) {
+        log.debug("Channel broadcaster shut down, dropping chat for {}", channel);
+      }
+    }
+  }
+
+  /** Drops the lane of a channel that was removed. */
+  void forget(String channel) {
+    lanes.remove(channel);
+  }
+
+  private void drain(Lane lane) {
+    if (windowNanos > 0) {
+      LockSupport.parkNanos(windowNanos);
+    }
+    while (true) {
+      List<Message> batch = new ArrayList<>();
+      for (Message m = lane.pending.poll(); m != null; m = lane.pending.poll()) {
+        batch.add(m);
+      }
+      if (!batch.isEmpty() && !deliver(lane.channel, batch)) {
+        // the channel went away meanwhile; chat for a channel of that name starts a new lane
+        lanes.remove(lane.channel, lane);
+      }
+      lane.scheduled.set(false);
+      // a message may have been added after our last poll but before the flag was cleared
+      if (lane.pending.isEmpty() || !lane.scheduled.compareAndSet(false, true)) {
+        return;
+      }
+    }
+  }
+
+  /** Hands the batch to every member; returns false if the channel has no members anymore. */
+  private boolean deliver(String channel, List<Message> batch) {
+    Set<MessageContext> recipients = members.apply(channel);
+    if (recipients == null) {
+      return false;
+    }
+    for (MessageContext member : recipients) {
+      try {
+        member.getOutboundMessageQueue().queueMessages(batch);
+      } catch (InvalidatedQueueException ignored) {
+      } catch (RuntimeException e) {
+        log.error("Error delivering chat of channel {}", channel, e);
+      }
+    }
+    return true;
+  }
+
+  void shutdown() {
+    executor.shutdown();
+  }
+}
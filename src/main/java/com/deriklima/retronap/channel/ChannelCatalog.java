@@ -0,0 +1,120 @@
+package com.deriklima.retronap.channel;
+
+import jakarta.annotation.PreDestroy;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DataAccessException;
+import org.springframework.stereotype.Component;
+
+/**
+ * Every channel, held in memory and loaded once at startup, so joins, capacity checks and channel
+ * lists don't query the database. Changes are written through to {@link ChannelRepository} by a
+ * single background thread, in the order they were made.
+ *
+ * <p>Channels handed out are never modified; a change replaces the channel with an updated copy,
+ * which is also what gets saved.
+ */
+@Slf4j
+@Component
+class ChannelCatalog {
+  private final ChannelRepository channelRepository;
+  private final Map<String, Channel> channels = new ConcurrentSkipListMap<>();
+
+  /** Bumped on every change, so listings derived from the catalog know when they are stale. */
+  private final AtomicLong version = new AtomicLong();
+
+  private final ExecutorService writer =
+      Executors.newSingleThreadExecutor(
+          Thread.ofPlatform().name("channel-writer").daemon().factory());
+
+  ChannelCatalog(ChannelRepository channelRepository) {
+    this.channelRepository = channelRepository;
+    channelRepository.findAll().forEach(c -> channels.put(c.getName(), c));
+  }
+
+  Channel get(String name) {
+    return name != null ? channels.get(name) : null;
+  }
+
+  /** All channels, sorted by name. */
+  Collection<Channel> all() {
+    return channels.values();
+  }
+
+  long version() {
+    return version.get();
+  }
+
+  /** Adds a channel unless one with its name exists; returns whether it was added. */
+  boolean addIfAbsent(Channel channel) {
+    if (channels.putIfAbsent(channel.getName(), channel) != null) {
+      return false;
+    }
+    version.incrementAndGet();
+    writeBehind(() -> channelRepository.save(channel));
+    return true;
+  }
+
+  void remove(String name) {
+    if (channels.remove(name) != null) {
+      version.incrementAndGet();
+      writeBehind(() -> channelRepository.deleteById(name));
+    }
+  }
+
+  void updateTopic(String name, String topic) {
+    Channel updated =
+        channels.computeIfPresent(
+            name,
+            (key, current) -> {
+              Channel copy = copyOf(current);
+              copy.setTopic(topic);
+              return copy;
+            });
+    if (updated != null) {
+      version.incrementAndGet();
+      writeBehind(() -> channelRepository.save(updated));
+    }
+  }
+
+  private static Channel copyOf(Channel channel) {
+    Channel copy = new Channel();
+    copy.setName(channel.getName());
+    copy.setTopic(channel.getTopic());
+    copy.setPermanent(channel.isPermanent());
+    copy.setLimit(channel.getLimit());
+    copy.setLevel(channel.getLevel());
+    return copy;
+  }
+
+  private void writeBehind(Runnable write) {
+    try {
+      writer.execute(
+          () -> {
+            try {
+              write.run();
+            } catch (DataAccessException e) {
+              log.error("Failed to persist channel change", e);
+            }
+          });
+    } catch (RejectedExecutionException e) {
+      log.debug("Channel writer shut down, change will not be persisted");
+    }
+  }
+
+  /** Lets queued writes finish before the data source goes away. */
+  @PreDestroy
+  public void shutdown() throws InterruptedException {
+    writer.shutdown();
+    if (!writer.awaitTermination(10, TimeUnit.SECONDS)) {
+      log.warn("Channel writer did not finish in time, some changes may be lost");
+    }
+  }
+}
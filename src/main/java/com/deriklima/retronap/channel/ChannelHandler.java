@@ -56,7 +56,6 @@ public class ChannelHandler extends MessageHandler {
       case MessageTypes.CLIENT_CHANNEL_JOIN:
         {
           String channelName = m.getDataString(0);
-          String nickName = session.getUser().getNickname();
           StringBuilder topicMsg = new StringBuilder(64);
           boolean channelExists = channelManager.getChannel(channelName) != null;
           OutboundMessageQueue queue = session.getOutboundMessageQueue();
@@ -81,9 +80,9 @@ public class ChannelHandler extends MessageHandler {
             } catch (InvalidatedQueueException iqe) {
             }
           } else {
-            channelManager.addUserToChannel(channelName, nickName);
+            channelManager.addUserToChannel(channelName, session);
             channelManager.notifyChannelOfUserAction(
-                ChannelManager.ACTION_JOIN, channelName, nickName);
+                ChannelManager.ACTION_JOIN, channelName, session);
 
             topicMsg.append(channelName);
             topicMsg.append(" ");
@@ -101,10 +100,9 @@ public class ChannelHandler extends MessageHandler {
       case MessageTypes.CLIENT_CHANNEL_LEAVE:
         {
           String channelName = m.getDataString(0);
-          String nickName = session.getUser().getNickname();
-          channelManager.removeUserFromChannel(channelName, nickName);
+          channelManager.removeUserFromChannel(channelName, session);
           channelManager.notifyChannelOfUserAction(
-              ChannelManager.ACTION_LEAVE, channelName, nickName);
+              ChannelManager.ACTION_LEAVE, channelName, session);
           break;
         }
       case MessageTypes.CLIENT_CHANNEL_PUBLIC_MESSAGE:
@@ -117,32 +115,12 @@ public class ChannelHandler extends MessageHandler {
         }
       case MessageTypes.FULL_CHANNEL_LIST:
         {
-          Channel[] channels = channelManager.getChannels();
           OutboundMessageQueue queue = session.getOutboundMessageQueue();
-          if (channels != null) {
-            for (Channel channel : channels) {
-              StringBuilder buf = new StringBuilder(128);
-              buf.append(channel.getName());
-              buf.append(" ");
-              buf.append(channelManager.numMembers(channel.getName()));
-              buf.append(" ");
-              buf.append(channel.isPermanent() ? "0" : "1");
-              buf.append(" ");
-              buf.append(channel.getLevel().getValue());
-              buf.append(" ");
-              buf.append(channel.getLimit());
-              buf.append(" ");
-              buf.append("\"").append(channel.getTopic()).append("\"");
-              try {
-                queue.queueMessage(
-                    new Message(MessageTypes.SERVER_FULL_CHANNEL_INFO, buf.toString()));
-              } catch (InvalidatedQueueException iqe) {
-              }
-            }
-          }
-          // send end msg
+          // entries and end marker, shared with every other session asking for the list
           try {
-            queue.queueMessage(new Message(MessageTypes.FULL_CHANNEL_LIST, ""));
+            for (Message entry : channelManager.getFullChannelList()) {
+              queue.queueMessage(entry);
+            }
           } catch (InvalidatedQueueException iqe) {
           }
           break;
@@ -181,7 +159,7 @@ public class ChannelHandler extends MessageHandler {
 
           String buf = channelName + " " + user + " \"" + emoteText + "\"";
 
-          channelManager.sendMessage(channelName, new Message(MessageTypes.CHANNEL_EMOTE, buf));
+          channelManager.sendChat(channelName, Message.preEncoded(MessageTypes.CHANNEL_EMOTE, buf));
           break;
         }
       case MessageTypes.CHANNEL_TOPIC:
@@ -194,7 +172,7 @@ public class ChannelHandler extends MessageHandler {
           channelManager.updateChannelTopic(channelName, topic);
 
           channelManager.sendMessage(
-              channelName, new Message(MessageTypes.CHANNEL_TOPIC, topicMsgToSend));
+              channelName, Message.preEncoded(MessageTypes.CHANNEL_TOPIC, topicMsgToSend));
           break;
         }
       case MessageTypes.CLIENT_CHANNEL_USER_LIST:
@@ -7,10 +7,9 @@ import com.deriklima.retronap.message.MessageContext;
 import com.deriklima.retronap.message.MessageTypes;
 import com.deriklima.retronap.message.OutboundMessageQueue;
 import com.deriklima.retronap.model.UserLevelTypes;
-import com.deriklima.retronap.search.SharedFileService;
 import com.deriklima.retronap.session.SessionEvent;
-import com.deriklima.retronap.session.SessionManager;
 import com.deriklima.retronap.user.UserChannelProvider;
+import jakarta.annotation.PreDestroy;
 import java.io.BufferedReader;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
@@ -18,22 +17,24 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashMap;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.atomic.AtomicLong;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.context.event.EventListener;
 import org.springframework.core.io.ResourceLoader;
-import org.springframework.data.domain.Sort;
 import org.springframework.stereotype.Component;
 
 /**
  * Manages channels server-wide.
  *
- * <p>Keeps redundant info on channel membership, for efficiency's sake.
+ * <p>Keeps redundant info on channel membership, for efficiency's sake. Channels themselves come
+ * from the in-memory {@link ChannelCatalog}.
  *
  * <p>Calling code should use addUserToChannel and removeUserFromChannel, but should never call
  * addMember, removeMember in the Channel objects, or horrible things will happen.
@@ -45,23 +46,35 @@ public class ChannelManager implements UserChannelProvider {
   public static final int USER_INITIATED = 0;
   public static final int NON_USER_INITIATED = 1;
   private static final Logger logger = LoggerFactory.getLogger(ChannelManager.class);
-  private final Map<String, Set<String>> channelMembers = new HashMap<>();
-  private final Map<String, Set<String>> users = new HashMap<>(); // username to channel names
-  private final SessionManager sessionManager;
-  private final SharedFileService sharedFileService;
+
+  /**
+   * Channel name to its members. Copy-on-write, so broadcasts iterate a snapshot without locking
+   * or copying; joins and leaves are rarer than the messages sent to a channel.
+   */
+  private final Map<String, Set<MessageContext>> channelMembers = new ConcurrentHashMap<>();
+
+  private final Map<MessageContext, Set<String>> channelsBySession = new ConcurrentHashMap<>();
   private final ResourceLoader resourceLoader;
-  private final ChannelRepository channelRepository;
+  private final ChannelCatalog channelCatalog;
+  private final ChannelBroadcaster chatBroadcaster;
+
+  /** Bumped on joins and leaves, which change the member counts in channel listings. */
+  private final AtomicLong membershipVersion = new AtomicLong();
+
+  private volatile FullChannelList fullChannelList;
+
+  /** The encoded reply to {@code FULL_CHANNEL_LIST}, and the state it was built from. */
+  private record FullChannelList(long version, List<Message> messages) {}
 
   public ChannelManager(
-      SessionManager sessionManager,
       RetroNapConfig configuration,
-      SharedFileService sharedFileService,
       ResourceLoader resourceLoader,
-      ChannelRepository channelRepository) {
-    this.sessionManager = sessionManager;
-    this.sharedFileService = sharedFileService;
+      ChannelCatalog channelCatalog) {
     this.resourceLoader = resourceLoader;
-    this.channelRepository = channelRepository;
+    this.channelCatalog = channelCatalog;
+    this.chatBroadcaster =
+        new ChannelBroadcaster(
+            channelMembers::get, configuration.getChannels().getBroadcastWindowMs());
     initChannelsFile(configuration.getPathConfig().getChannels());
   }
 
@@ -114,18 +127,25 @@ public class ChannelManager implements UserChannelProvider {
     }
   }
 
-  /** Adds a user to a channel (join) */
-  public void addUserToChannel(String channel, String user) {
-    Channel c = getChannel(channel);
-    if (c == null) // doesnt exist yet
-    {
-      c = new Channel();
-      c.setName(channel);
-      c.setTopic("Welcome to the " + channel + " channel");
-      addChannel(c);
-    }
-    channelMembers.computeIfAbsent(channel, k -> new java.util.HashSet<>()).add(user);
-    users.computeIfAbsent(user, k -> new java.util.HashSet<>()).add(channel);
+  /** Adds a user to a channel (join), creating the channel if it doesn't exist yet */
+  public void addUserToChannel(String channel, MessageContext user) {
+    channelMembers.compute(
+        channel,
+        (name, members) -> {
+          if (members == null) {
+            if (getChannel(name) == null) {
+              Channel c = new Channel();
+              c.setName(name);
+              c.setTopic("Welcome to the " + name + " channel");
+              addChannel(c);
+            }
+            members = new CopyOnWriteArraySet<>();
+          }
+          members.add(user);
+          return members;
+        });
+    channelsBySession.computeIfAbsent(user, k -> ConcurrentHashMap.newKeySet()).add(channel);
+    membershipVersion.incrementAndGet();
   }
 
   /**
@@ -139,21 +159,20 @@ public class ChannelManager implements UserChannelProvider {
       endListMsgType = MessageTypes.CLIENT_CHANNEL_USER_LIST;
     }
 
-    Set<String> members = channelMembers.get(channel);
+    Set<MessageContext> members = channelMembers.get(channel);
     if (members != null && !members.isEmpty()) {
       OutboundMessageQueue queue = s.getOutboundMessageQueue();
-      for (String singleMember : new ArrayList<>(members)) {
-        MessageContext memberMessageContext = sessionManager.searchForSession(singleMember);
-        if (memberMessageContext != null) {
-          Long numShares = sharedFileService.countByUserId(memberMessageContext.getUserId());
-          int linkType = memberMessageContext.getLinkSpeedValue();
-          String msg =
-              String.join(
-                  " ", channel, singleMember, String.valueOf(numShares), String.valueOf(linkType));
-          try {
-            queue.queueMessage(new Message(entryMsgType, msg));
-          } catch (InvalidatedQueueException ignored) {
-          }
+      for (MessageContext member : members) {
+        String msg =
+            String.join(
+                " ",
+                channel,
+                member.getNickname(),
+                String.valueOf(member.getShareCount()),
+                String.valueOf(member.getLinkSpeedValue()));
+        try {
+          queue.queueMessage(new Message(entryMsgType, msg));
+        } catch (InvalidatedQueueException ignored) {
         }
       }
       try {
@@ -164,109 +183,138 @@ public class ChannelManager implements UserChannelProvider {
   }
 
   /** Sends msgs to all users in channel, that user has joined/left. */
-  public void notifyChannelOfUserAction(int actionType, String channel, String user) {
+  public void notifyChannelOfUserAction(int actionType, String channel, MessageContext user) {
     int msgType = -1;
     switch (actionType) {
       case ACTION_JOIN -> msgType = MessageTypes.SERVER_CHANNEL_JOIN_NOTIFY;
       case ACTION_LEAVE -> msgType = MessageTypes.SERVER_CHANNEL_LEAVE_NOTIFY;
     }
 
-    // gather info about user we're sending notification about.
-    MessageContext userMessageContext = sessionManager.searchForSession(user);
-    if (userMessageContext != null) {
-      Long numShares = sharedFileService.countByUserId(userMessageContext.getUserId());
-      int linkType = userMessageContext.getLinkSpeedValue();
-
-      String msg =
-          String.join(" ", channel, user, String.valueOf(numShares), String.valueOf(linkType));
-
-      sendMessage(channel, new Message(msgType, msg));
-    }
+    String msg =
+        String.join(
+            " ",
+            channel,
+            user.getNickname(),
+            String.valueOf(user.getShareCount()),
+            String.valueOf(user.getLinkSpeedValue()));
+    sendMessage(channel, Message.preEncoded(msgType, msg));
   }
 
-  /** Removes a user from a channel */
-  public void removeUserFromChannel(String channel, String user) {
-    Channel c = getChannel(channel);
-    Set<String> members = channelMembers.get(channel);
-    if (members != null) {
-      members.remove(user);
-      if (members.isEmpty()) {
-        channelMembers.remove(channel);
-      }
-    }
-    if (c != null) {
-      if (numMembers(channel) == 0 && !c.isPermanent()) {
-        removeChannel(c);
-      }
-    }
-    Set<String> channelList = users.get(user);
+  /** Removes a user from a channel, and the channel too once the last user has left */
+  public void removeUserFromChannel(String channel, MessageContext user) {
+    channelMembers.computeIfPresent(
+        channel,
+        (name, members) -> {
+          members.remove(user);
+          if (!members.isEmpty()) {
+            return members;
+          }
+          Channel c = getChannel(name);
+          if (c != null && !c.isPermanent()) {
+            channelCatalog.remove(name);
+            chatBroadcaster.forget(name);
+          }
+          return null;
+        });
+    Set<String> channelList = channelsBySession.get(user);
     if (channelList != null) {
       channelList.remove(channel);
-      if (channelList.isEmpty()) {
-        users.remove(user);
-      }
     }
+    membershipVersion.incrementAndGet();
   }
 
   /** Sends a public msg to channel, from user */
   public void sendMessage(String channel, String user, String msg) {
     Message msgToSend =
-        new Message(MessageTypes.SERVER_CHANNEL_PUBLIC_MESSAGE, channel + " " + user + " " + msg);
-    sendMessage(channel, msgToSend);
+        Message.preEncoded(
+            MessageTypes.SERVER_CHANNEL_PUBLIC_MESSAGE, channel + " " + user + " " + msg);
+    sendChat(channel, msgToSend);
   }
 
-  /** variation of sendMessage(), takes a preconstructed msg and broadcasts to channel */
-  public void sendMessage(String channel, Message msg) {
-    Set<String> members = channelMembers.get(channel);
-    if (members == null || members.isEmpty()) {
-      return;
+  /**
+   * Broadcasts chat (public messages, emotes) to a channel in the background. Chat of one channel
+   * is delivered in the order it was sent, batched with whatever else arrived at the same time.
+   */
+  public void sendChat(String channel, Message msg) {
+    // a lane is only made for channels that exist, clients can name any channel they like
+    if (channel != null && channelMembers.containsKey(channel)) {
+      chatBroadcaster.broadcast(channel, msg);
     }
-    for (String member : new ArrayList<>(members)) {
-      MessageContext targetMessageContext = sessionManager.searchForSession(member);
-      if (targetMessageContext != null) {
-        OutboundMessageQueue queue = targetMessageContext.getOutboundMessageQueue();
-        try {
-          queue.queueMessage(msg);
-        } catch (InvalidatedQueueException ignored) {
-        }
-      } // end if
-    } // end for
   }
 
-  /** Returns array of channels that user is currently a member of. */
-  public Channel[] getChannelsForUser(String user) {
-    Set<String> channelList = users.get(user);
-    if (channelList != null && !channelList.isEmpty()) {
-      return channelList.stream()
-          .map(this::getChannel)
-          .filter(c -> c != null)
-          .toArray(Channel[]::new);
+  /**
+   * variation of sendMessage(), takes a preconstructed msg and broadcasts to channel. Build it with
+   * {@link Message#preEncoded} so it is encoded once rather than once per member.
+   */
+  public void sendMessage(String channel, Message msg) {
+    Set<MessageContext> members = channelMembers.get(channel);
+    if (members == null) {
+      return;
+    }
+    // iterates a snapshot of the members; joins and leaves meanwhile don't affect it
+    for (MessageContext member : members) {
+      try {
+        member.getOutboundMessageQueue().queueMessage(msg);
+      } catch (InvalidatedQueueException ignored) {
+      }
     }
-    return null;
   }
 
-  /** Returns array of all channels in system. */
+  /** Returns array of all channels in system, sorted by name. */
   public Channel[] getChannels() {
-    List<Channel> channels = channelRepository.findAll(Sort.by(Sort.Direction.ASC, "name"));
+    Collection<Channel> channels = channelCatalog.all();
     if (!channels.isEmpty()) {
       return channels.toArray(new Channel[0]);
     }
     return null;
   }
 
+  /**
+   * Returns the {@code SERVER_FULL_CHANNEL_INFO} entries for every channel, followed by the {@code
+   * FULL_CHANNEL_LIST} end marker. The messages are built once and reused until a channel or its
+   * membership changes.
+   */
+  public List<Message> getFullChannelList() {
+    long version = channelCatalog.version() + membershipVersion.get();
+    FullChannelList cached = fullChannelList;
+    if (cached != null && cached.version() == version) {
+      return cached.messages();
+    }
+    List<Message> messages = new ArrayList<>();
+    for (Channel channel : channelCatalog.all()) {
+      // <channel> <users> <permanent> <level> <limit> "<topic>"
+      String entry =
+          channel.getName()
+              + " "
+              + numMembers(channel.getName())
+              + " "
+              + (channel.isPermanent() ? "0" : "1")
+              + " "
+              + channel.getLevel().getValue()
+              + " "
+              + channel.getLimit()
+              + " \""
+              + channel.getTopic()
+              + "\"";
+      messages.add(Message.preEncoded(MessageTypes.SERVER_FULL_CHANNEL_INFO, entry));
+    }
+    messages.add(Message.preEncoded(MessageTypes.FULL_CHANNEL_LIST, ""));
+    messages = List.copyOf(messages);
+    // a change made while building bumps the version, so this is rebuilt on the next request
+    fullChannelList = new FullChannelList(version, messages);
+    return messages;
+  }
+
   /** Returns the Channel object for given channel name */
   public Channel getChannel(String channel) {
-    return channelRepository.findById(channel).orElse(null);
+    return channelCatalog.get(channel);
   }
 
   public void addChannel(Channel channel) {
     if (channel == null || channel.getName() == null || channel.getName().isBlank()) {
       return;
     }
-    if (channelRepository.existsById(channel.getName())) {
-      return;
-    }
-    channelRepository.save(channel);
+    channelCatalog.addIfAbsent(channel);
   }
 
   public void removeChannel(Channel channel) {
@@ -274,25 +322,21 @@ public class ChannelManager implements UserChannelProvider {
       return;
     }
     channelMembers.remove(channel.getName());
-    channelRepository.deleteById(channel.getName());
+    channelCatalog.remove(channel.getName());
+    chatBroadcaster.forget(channel.getName());
   }
 
   public void updateChannelTopic(String channelName, String topic) {
     if (topic == null) {
       return;
     }
-    Channel channel = getChannel(channelName);
-    if (channel == null) {
-      return;
-    }
-    channel.setTopic(topic);
-    channelRepository.save(channel);
+    channelCatalog.updateTopic(channelName, topic);
   }
 
   @Override
-  public String[] getChannelNamesForUser(String user) {
-    Set<String> channelList = users.get(user);
-    if (channelList != null && !channelList.isEmpty()) {
+  public String[] getChannelNamesForUser(MessageContext user) {
+    Set<String> channelList = channelsBySession.get(user);
+    if (channelList != null) {
       return channelList.toArray(new String[0]);
     }
     return new String[0];
@@ -308,7 +352,13 @@ public class ChannelManager implements UserChannelProvider {
   }
 
   public int numMembers(String channelName) {
-    return channelMembers.getOrDefault(channelName, Collections.emptySet()).size();
+    Set<MessageContext> members = channelMembers.get(channelName);
+    return members != null ? members.size() : 0;
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    chatBroadcaster.shutdown();
   }
 
   /** Listens for session terminate events; removes the user from all channels */
@@ -316,15 +366,11 @@ public class ChannelManager implements UserChannelProvider {
   public void processEvent(SessionEvent se) {
     if (se.getType() == SessionEvent.TERMINATE) {
       MessageContext s = se.getSession();
-      String nickname = s.getNickname();
-      if (nickname != null) {
-        Channel[] channels = getChannelsForUser(nickname);
-        if (channels != null) {
-          for (Channel channel : channels) {
-            String channelName = channel.getName();
-            removeUserFromChannel(channelName, nickname);
-            notifyChannelOfUserAction(ACTION_LEAVE, channelName, nickname);
-          }
+      Set<String> channelList = channelsBySession.remove(s);
+      if (channelList != null) {
+        for (String channelName : channelList) {
+          removeUserFromChannel(channelName, s);
+          notifyChannelOfUserAction(ACTION_LEAVE, channelName, s);
         }
       }
     }
@@ -15,6 +15,21 @@ public class RetroNapConfig {
   private Metaserver metaserver;
   private String userPersistenceStore;
   private PathConfig pathConfig;
+  private Outbound outbound = new Outbound();
+  private Search search = new Search();
+  private Shares shares = new Shares();
+  private Channels channels = new Channels();
+  private Login login = new Login();
+  private Users users = new Users();
+  private Transfers transfers = new Transfers();
+
+  /**
+   * Whether searches and resume lookups are answered from the in-memory index. Without database
+   * storage the index is the only place shares can be found, whatever the configured backend.
+   */
+  public boolean searchesIndex() {
+    return search.getBackend() == SearchBackend.INDEX || shares.getStorage() == ShareStorage.MEMORY;
+  }
 
   @Getter
   @Setter
@@ -23,6 +38,19 @@ public class RetroNapConfig {
     private int port;
     private int maxConnections;
     private int sessionTimeout;
+
+    /** How client connections are served; see {@link IoMode}. */
+    private IoMode ioMode = IoMode.BLOCKING;
+
+    /** Number of selector event loops in {@link IoMode#NIO} mode, 0 means one per CPU. */
+    private int ioThreads;
+  }
+
+  public enum IoMode {
+    /** One virtual thread per session blocking on socket reads. */
+    BLOCKING,
+    /** A handful of selector threads multiplexing every connection. */
+    NIO
   }
 
   @Getter
@@ -33,6 +61,126 @@ public class RetroNapConfig {
     private int port;
   }
 
+  /** Batching and bounds of each session's outbound queue. */
+  @Getter
+  @Setter
+  public static class Outbound {
+    /** A batch is written once it holds at least this many bytes. */
+    private int maxBatchBytes = 64 * 1024;
+
+    /** How long a batch may wait for more messages, 0 writes as soon as the queue runs dry. */
+    private int maxBatchDelayMs;
+
+    /** Most messages a session may have waiting to be written. */
+    private int maxQueuedMessages = 10_000;
+
+    /** Most bytes a session may have waiting to be written. */
+    private long maxQueuedBytes = 4 * 1024 * 1024;
+
+    /** What gives when a slow client hits either bound. */
+    private OverflowPolicy overflowPolicy = OverflowPolicy.DROP_NON_CRITICAL;
+  }
+
+  /**
+   * What a full outbound queue gives up. Each policy first evicts the oldest queued messages it
+   * considers droppable, then drops the new message if that one is droppable, and disconnects the
+   * session only if neither makes room.
+   */
+  public enum OverflowPolicy {
+    /** Only channel chatter is droppable. */
+    DROP_OLDEST_CHAT,
+    /** Chat, stats pushes and individual search/browse/resume results are droppable. */
+    DROP_NON_CRITICAL,
+    /** Nothing is droppable, a full queue disconnects the session. */
+    DISCONNECT
+  }
+
+  @Getter
+  @Setter
+  public static class Search {
+    /** Where searches are answered from; see {@link SearchBackend}. */
+    private SearchBackend backend = SearchBackend.INDEX;
+
+    /** Upper bound for a client's MAX_RESULTS; searches without one get 100. */
+    private int maxResults = 1000;
+  }
+
+  public enum SearchBackend {
+    /** The in-memory index of the shares of connected users. */
+    INDEX,
+    /** Full-text search over the shared_file table. */
+    DATABASE
+  }
+
+  @Getter
+  @Setter
+  public static class Shares {
+    /** Whether shares are also kept in the database; see {@link ShareStorage}. */
+    private ShareStorage storage = ShareStorage.DATABASE;
+
+    /** Queued shares are written to the database in batches of this many rows. */
+    private int writeBatchSize = 500;
+
+    /** How long queued shares may wait before a (possibly smaller) batch is written. */
+    private int writeIntervalMs = 200;
+  }
+
+  @Getter
+  @Setter
+  public static class Channels {
+    /** How long chat for a channel is collected before it is delivered, 0 delivers at once. */
+    private int broadcastWindowMs = 5;
+  }
+
+  @Getter
+  @Setter
+  public static class Login {
+    /** Threads checking login passwords, 0 means one per CPU. */
+    private int verifierThreads;
+
+    /** Logins that may wait for a verifier thread; beyond that they are turned away as busy. */
+    private int maxPendingVerifications = 1000;
+
+    /** How often the fields a login changes are written to the database. */
+    private int updateIntervalMs = 1000;
+
+    /** How long a successful password check is remembered, 0 turns the cache off. */
+    private int verificationCacheTtlMs;
+
+    /** Most password checks remembered at once. */
+    private int verificationCacheSize = 10_000;
+  }
+
+  @Getter
+  @Setter
+  public static class Users {
+    /** Most users (and as many id to nickname lookups) kept in memory at once. */
+    private int cacheSize = 10_000;
+
+    /** How long a looked up user is kept, 0 turns the cache off. */
+    private int cacheTtlMs = 300_000;
+
+    /** How long a nickname is remembered as not registered, 0 turns that off. */
+    private int negativeCacheTtlMs = 5_000;
+
+    /** How often the user and verification cache statistics are logged, 0 turns that off. */
+    private int statsLogIntervalMs = 300_000;
+  }
+
+  @Getter
+  @Setter
+  public static class Transfers {
+    /** How often the download and upload counts reported by clients are written. */
+    private int counterFlushIntervalMs = 5_000;
+  }
+
+  public enum ShareStorage {
+    /** Shares are written to the shared_file table as well as indexed in memory. */
+    DATABASE,
+    /** Shares only live in memory while their owner is connected; nothing is written. */
+    MEMORY
+  }
+
   @Getter
   @Setter
   public static class PathConfig {
@@ -9,9 +9,12 @@ import com.deriklima.retronap.model.User;
 import com.deriklima.retronap.session.SessionEvent;
 import com.deriklima.retronap.session.SessionManager;
 import com.deriklima.retronap.user.UserPersistenceStore;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Optional;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Component;
@@ -21,7 +24,10 @@ import org.springframework.transaction.annotation.Transactional;
  * This class encapsulates functionality for "hotlist" feature. For lack of a better vocabulary:
  * target: user who is on a hotlist stalker: user who should be notified when a target signs on/off
  *
- * <p>Checks the status of stalkers on demand
+ * <p>Keeps the hotlist entries of online stalkers in memory, in both directions and keyed by user
+ * id. A stalker's entries are loaded when they sign on and dropped when they sign off, and every
+ * change is written through to the database. A target signing on or off is therefore announced
+ * from memory, through the online session index, without any query.
  *
  * <p>Uses Spring's event system to handle session events
  */
@@ -33,6 +39,12 @@ public class Hotlist {
 
   private final SessionManager sessionManager;
 
+  /** Target id to the ids of the online users who have the target on their hotlist. */
+  private final Map<UUID, Set<UUID>> stalkersByTarget = new ConcurrentHashMap<>();
+
+  /** Online stalker id to the ids on their hotlist. */
+  private final Map<UUID, Set<UUID>> targetsByStalker = new ConcurrentHashMap<>();
+
   public Hotlist(
       HotlistService hotlistService,
       UserPersistenceStore userPersistenceStore,
@@ -45,8 +57,12 @@ public class Hotlist {
   /** registers a stalker as listening for sign-on and sign-off events for nickName */
   @Transactional
   public void addStalkerForUser(MessageContext stalkerMessageContext, String nickToAdd) {
-    // check existence of nickName.
-    User userToAdd = userPersistenceStore.findByNickname(nickToAdd);
+    // check existence of nickName; an online user needs no lookup
+    MessageContext targetMessageContext = sessionManager.searchForSession(nickToAdd);
+    User userToAdd =
+        targetMessageContext != null
+            ? targetMessageContext.getUser()
+            : userPersistenceStore.findByNickname(nickToAdd);
     if (userToAdd == null) {
       OutboundMessageQueue queue = stalkerMessageContext.getOutboundMessageQueue();
       try {
@@ -56,8 +72,9 @@ public class Hotlist {
       return;
     }
 
-    hotlistService.save(
-        new HotlistEntry(userToAdd.getId(), stalkerMessageContext.getUser().getId()));
+    UUID stalkerId = stalkerMessageContext.getUser().getId();
+    hotlistService.save(new HotlistEntry(userToAdd.getId(), stalkerId));
+    link(userToAdd.getId(), stalkerId);
 
     OutboundMessageQueue queue = stalkerMessageContext.getOutboundMessageQueue();
     try {
@@ -66,7 +83,6 @@ public class Hotlist {
     }
 
     // check if nickName is logged in; send msg immediately
-    MessageContext targetMessageContext = sessionManager.searchForSession(nickToAdd);
     if (targetMessageContext != null) {
       notifySignonSingle(
           stalkerMessageContext, nickToAdd, targetMessageContext.getUser().getLinkSpeedValue());
@@ -76,82 +92,112 @@ public class Hotlist {
   /** removes stalker from listening for sign-on and sign-off events for user */
   public void removeStalkerForUser(UUID stalkerId, User user) {
     hotlistService.removeStalkerForUser(user.getId(), stalkerId);
+    unlink(user.getId(), stalkerId);
   }
 
   public void removeStalkerForUser(UUID id, String nickToRemove) {
-    User user = userPersistenceStore.findByNickname(nickToRemove);
+    MessageContext target = sessionManager.searchForSession(nickToRemove);
+    User user =
+        target != null ? target.getUser() : userPersistenceStore.findByNickname(nickToRemove);
     if (user != null) {
       removeStalkerForUser(id, user);
     }
   }
 
-  /**
-   * returns array of nicknames who are listening for sign-on and sign-off events for user NOTE:
-   * this method has no knowledge of whether names in list returned are actually still logged in.
-   */
-  private List<String> getStalkersForUser(User user) {
-    return hotlistService.findByTargetUserId(user.getId()).stream()
-        .map(hotlistEntry -> userPersistenceStore.findNicknameById(hotlistEntry.getStalkerUserId()))
-        .flatMap(Optional::stream)
-        .toList();
+  private void link(UUID targetId, UUID stalkerId) {
+    stalkersByTarget.computeIfAbsent(targetId, k -> ConcurrentHashMap.newKeySet()).add(stalkerId);
+    targetsByStalker.computeIfAbsent(stalkerId, k -> ConcurrentHashMap.newKeySet()).add(targetId);
+  }
+
+  private void unlink(UUID targetId, UUID stalkerId) {
+    removeEdge(stalkersByTarget, targetId, stalkerId);
+    removeEdge(targetsByStalker, stalkerId, targetId);
+  }
+
+  private static void removeEdge(Map<UUID, Set<UUID>> edges, UUID from, UUID to) {
+    edges.computeIfPresent(
+        from,
+        (key, set) -> {
+          set.remove(to);
+          return set.isEmpty() ? null : set;
+        });
+  }
+
+  /** Loads the hotlist of a user who just signed on. */
+  private void loadStalker(UUID stalkerId) {
+    for (HotlistEntry entry : hotlistService.findByStalkerUserId(stalkerId)) {
+      link(entry.getTargetUserId(), stalkerId);
+    }
+  }
+
+  /** Forgets the hotlist of a user who signed off; it stays in the database. */
+  private void unloadStalker(UUID stalkerId) {
+    Set<UUID> targets = targetsByStalker.remove(stalkerId);
+    if (targets != null) {
+      for (UUID targetId : targets) {
+        removeEdge(stalkersByTarget, targetId, stalkerId);
+      }
+    }
   }
 
-  /**
-   * Returns list of valid sessions who are listening for events for user calls getStalkersForUser()
-   * and filters out those nicks who are not logged in anymore, removing them from internal data
-   * structures.
-   */
+  /** Returns the sessions of the online users who are listening for events for user. */
   public MessageContext[] getStalkerMessageContextsForUser(User user) {
-    List<String> stalkers = getStalkersForUser(user);
-    if (!stalkers.isEmpty()) {
-      List<MessageContext> sessions = new java.util.ArrayList<>();
-      for (String stalkerName : stalkers) {
-        MessageContext session = sessionManager.searchForSession(stalkerName);
-        if (session != null) {
-          sessions.add(session);
-        } else {
-          User stalker = userPersistenceStore.findByNickname(stalkerName);
-          if (stalker != null) {
-            removeStalkerForUser(stalker.getId(), user);
-          }
-        }
+    Set<UUID> stalkers = stalkersByTarget.get(user.getId());
+    if (stalkers == null || stalkers.isEmpty()) {
+      return new MessageContext[0];
+    }
+    List<MessageContext> sessions = new ArrayList<>(stalkers.size());
+    for (UUID stalkerId : stalkers) {
+      MessageContext session = sessionManager.searchForSessionByUserId(stalkerId);
+      if (session != null) {
+        sessions.add(session);
       }
-      return sessions.toArray(new MessageContext[0]);
     }
-    return new MessageContext[0];
+    return sessions.toArray(new MessageContext[0]);
   }
 
   /** Sends sign-on notification to all users who added nickname to their hotlists */
   public void notifySignon(User user) {
     MessageContext[] sessionsToNotify = getStalkerMessageContextsForUser(user);
+    if (sessionsToNotify.length == 0) {
+      return;
+    }
+    Message signon =
+        Message.preEncoded(
+            MessageTypes.SERVER_HOTLIST_SIGNON,
+            user.getNickname() + " " + user.getLinkSpeedValue());
     for (MessageContext singleMessageContext : sessionsToNotify) {
-      notifySignonSingle(singleMessageContext, user.getNickname(), user.getLinkSpeedValue());
+      send(singleMessageContext, signon);
     }
   }
 
   /** Sends a single msg to sessionToNotify, that nickname has signed on with linkType */
   public void notifySignonSingle(MessageContext sessionToNotify, String nickname, int linkType) {
     String msg = nickname + " " + linkType;
-    OutboundMessageQueue queue = sessionToNotify.getOutboundMessageQueue();
-    try {
-      queue.queueMessage(new Message(MessageTypes.SERVER_HOTLIST_SIGNON, msg));
-    } catch (InvalidatedQueueException ignored) {
-    }
+    send(sessionToNotify, new Message(MessageTypes.SERVER_HOTLIST_SIGNON, msg));
   }
 
   /** Sends sign-off notification to all users who added nickname to their hotlists */
   public void notifySignoff(User user) {
     MessageContext[] sessionsToNotify = getStalkerMessageContextsForUser(user);
+    if (sessionsToNotify.length == 0) {
+      return;
+    }
+    Message signoff = Message.preEncoded(MessageTypes.SERVER_HOTLIST_SIGNOFF, user.getNickname());
     for (MessageContext singleMessageContext : sessionsToNotify) {
-      notifySignoffSingle(singleMessageContext, user.getNickname());
+      send(singleMessageContext, signoff);
     }
   }
 
   /** Sends a single msg to sessionToNotify, that nickname has signed off */
   public void notifySignoffSingle(MessageContext sessionToNotify, String nickname) {
+    send(sessionToNotify, new Message(MessageTypes.SERVER_HOTLIST_SIGNOFF, nickname));
+  }
+
+  private static void send(MessageContext sessionToNotify, Message message) {
     OutboundMessageQueue queue = sessionToNotify.getOutboundMessageQueue();
     try {
-      queue.queueMessage(new Message(MessageTypes.SERVER_HOTLIST_SIGNOFF, nickname));
+      queue.queueMessage(message);
     } catch (InvalidatedQueueException ignored) {
     }
   }
@@ -163,8 +209,18 @@ public class Hotlist {
       return;
     }
     switch (se.getType()) {
-      case SessionEvent.TERMINATE -> notifySignoff(user);
-      case SessionEvent.SIGNON -> notifySignon(user);
+      case SessionEvent.TERMINATE -> {
+        notifySignoff(user);
+        // the same user may already be back in a newer session, which still needs the hotlist
+        MessageContext current = sessionManager.searchForSessionByUserId(user.getId());
+        if (current == null || current == se.getSession()) {
+          unloadStalker(user.getId());
+        }
+      }
+      case SessionEvent.SIGNON -> {
+        loadStalker(user.getId());
+        notifySignon(user);
+      }
     }
   }
 }
@@ -11,5 +11,7 @@ public interface HotlistRepository
 
   List<HotlistEntry> findByTargetUserId(UUID targetUserId);
 
+  List<HotlistEntry> findByStalkerUserId(UUID stalkerUserId);
+
   void deleteByTargetUserIdAndStalkerUserId(UUID targetUserId, UUID stalkerUserId);
 }
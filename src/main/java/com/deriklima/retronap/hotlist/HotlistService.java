@@ -25,4 +25,8 @@ public class HotlistService {
   public List<HotlistEntry> findByTargetUserId(UUID id) {
     return hotlistRepository.findByTargetUserId(id);
   }
+
+  public List<HotlistEntry> findByStalkerUserId(UUID id) {
+    return hotlistRepository.findByStalkerUserId(id);
+  }
 }
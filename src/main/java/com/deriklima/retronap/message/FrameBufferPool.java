@@ -0,0 +1,33 @@
+package com.deriklima.retronap.message;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import org.springframework.stereotype.Component;
+
+/**
+ * Shared pool of frame-sized receive buffers. A buffer is only borrowed while a connection has
+ * bytes to decode or a message in dispatch, so idle connections hold no payload memory at all.
+ */
+@Component
+public class FrameBufferPool {
+  /** Big enough for the largest frame the protocol can express. */
+  public static final int BUFFER_SIZE =
+      FrameDecoder.HEADER_LENGTH + FrameDecoder.MAX_PAYLOAD_LENGTH;
+
+  private static final int MAX_POOLED_BUFFERS = 256;
+
+  // array backed, so handing buffers back and forth allocates nothing
+  private final BlockingQueue<ByteBuffer> free = new ArrayBlockingQueue<>(MAX_POOLED_BUFFERS);
+
+  /** Returns a cleared heap buffer of {@link #BUFFER_SIZE} bytes. */
+  public ByteBuffer acquire() {
+    ByteBuffer buffer = free.poll();
+    return buffer != null ? buffer.clear() : ByteBuffer.allocate(BUFFER_SIZE);
+  }
+
+  /** Hands a buffer back; buffers beyond the pool's capacity are left to the GC. */
+  public void release(ByteBuffer buffer) {
+    free.offer(buffer);
+  }
+}
@@ -0,0 +1,100 @@
+package com.deriklima.retronap.message;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Reusable per-connection frame decoder. Payloads are read into a buffer borrowed from the {@link
+ * FrameBufferPool} and the returned {@link Message} is a slice over it, so decoding a frame costs
+ * one small {@code Message} object and no payload copy.
+ *
+ * <p>A decoded message is only valid until the next call to {@link #decode(InputStream)} or {@link
+ * #release()}; handlers run synchronously before that and must not keep the message around.
+ */
+public class FrameDecoder {
+  public static final int HEADER_LENGTH = 4;
+  public static final int MAX_PAYLOAD_LENGTH = 0xFFFF;
+
+  private static final byte[] EMPTY = new byte[0];
+
+  private final FrameBufferPool pool;
+  private final byte[] header = new byte[HEADER_LENGTH];
+  private ByteBuffer current;
+
+  public FrameDecoder(FrameBufferPool pool) {
+    this.pool = pool;
+  }
+
+  /**
+   * Blocks until the next frame has been read. Returns null if the stream ends before a complete
+   * header, throws {@link EOFException} if it ends in the middle of a payload.
+   */
+  public Message decode(InputStream is) throws IOException {
+    // keep the buffer across back-to-back frames, but hand it back before blocking so that idle
+    // readers do not pin one
+    if (is.available() == 0) {
+      release();
+    }
+    if (readFully(is, header, HEADER_LENGTH) < HEADER_LENGTH) {
+      return null;
+    }
+    int length = unsignedShort(header, 0);
+    int type = unsignedShort(header, 2);
+    if (length == 0) {
+      return new Message(type, EMPTY, 0, 0);
+    }
+    if (current == null) {
+      current = pool.acquire();
+    }
+    byte[] payload = current.array();
+    if (readFully(is, payload, length) < length) {
+      throw new EOFException("Stream ended inside a " + length + " byte payload");
+    }
+    return new Message(type, payload, 0, length);
+  }
+
+  /** Returns the buffer backing the last decoded message to the pool. */
+  public void release() {
+    if (current != null) {
+      pool.release(current);
+      current = null;
+    }
+  }
+
+  /**
+   * Decodes the frame starting at the buffer's position if it is complete, advancing past it, and
+   * returns null otherwise. The message is a slice over the buffer's backing array.
+   */
+  public static Message decode(ByteBuffer buffer) {
+    int start = buffer.position();
+    if (buffer.remaining() < HEADER_LENGTH) {
+      return null;
+    }
+    byte[] array = buffer.array();
+    int offset = buffer.arrayOffset() + start;
+    int length = unsignedShort(array, offset);
+    if (buffer.remaining() < HEADER_LENGTH + length) {
+      return null;
+    }
+    buffer.position(start + HEADER_LENGTH + length);
+    return new Message(unsignedShort(array, offset + 2), array, offset + HEADER_LENGTH, length);
+  }
+
+  private static int readFully(InputStream is, byte[] buf, int size) throws IOException {
+    int total = 0;
+    while (total < size) {
+      int read = is.read(buf, total, size - total);
+      if (read < 0) {
+        break;
+      }
+      total += read;
+    }
+    return total;
+  }
+
+  private static int unsignedShort(byte[] buf, int index) {
+    return (buf[index] & 0xFF) | ((buf[index + 1] & 0xFF) << 8);
+  }
+}
@@ -0,0 +1,15 @@
+package com.deriklima.retronap.message;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/** Destination an {@link OutboundMessageQueue} writes its batches of encoded frames to. */
+public interface FrameSink extends Closeable {
+
+  /** Buffer for the queue to encode frames into, direct when the sink writes to a channel. */
+  ByteBuffer allocateBuffer(int capacity);
+
+  /** Writes the remaining bytes of the first {@code count} buffers, in order, then flushes. */
+  void write(ByteBuffer[] buffers, int count) throws IOException;
+}
@@ -1,9 +1,9 @@
 package com.deriklima.retronap.message;
 
 import com.deriklima.retronap.util.Util;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
 
 /**
  * Represents a message, either incoming or outgoing, with some utility functions for easier
@@ -13,19 +13,54 @@ public class Message {
   private final int messageType;
   private final int messageLength;
   private final byte[] messageData;
-  private List<String> stringTokens = null;
-  private boolean parsed = false;
+  private final int dataOffset;
+
+  /** Whether the four bytes before the payload already hold this message's header. */
+  private final boolean preEncoded;
+
+  private volatile int[] tokenBounds;
 
   public Message(int mType, int mLength, byte[] mData) {
-    this.messageType = mType;
-    this.messageLength = mLength;
-    this.messageData = mData;
+    this(mType, mData, 0, mLength);
   }
 
   public Message(int mType, String strData) {
     this.messageType = mType;
     this.messageData = strData.getBytes(StandardCharsets.ISO_8859_1);
+    this.dataOffset = 0;
     this.messageLength = this.messageData.length;
+    this.preEncoded = false;
+  }
+
+  /** Message whose payload is a slice of a (possibly reused) receive buffer. */
+  Message(int mType, byte[] buffer, int offset, int mLength) {
+    this(mType, buffer, offset, mLength, false);
+  }
+
+  private Message(int mType, byte[] buffer, int offset, int mLength, boolean preEncoded) {
+    this.messageType = mType;
+    this.messageLength = mLength;
+    this.messageData = buffer;
+    this.dataOffset = offset;
+    this.preEncoded = preEncoded;
+  }
+
+  /**
+   * A message meant to be queued to many sessions at once, such as a channel broadcast. Header and
+   * payload are encoded once into a single frame, which every queue then writes as is.
+   */
+  public static Message preEncoded(int mType, String strData) {
+    int length = strData.length();
+    byte[] frame = new byte[4 + length];
+    frame[0] = (byte) length;
+    frame[1] = (byte) (length >> 8);
+    frame[2] = (byte) mType;
+    frame[3] = (byte) (mType >> 8);
+    for (int i = 0; i < length; i++) {
+      char c = strData.charAt(i);
+      frame[4 + i] = (byte) (c <= 0xFF ? c : '?');
+    }
+    return new Message(mType, frame, 4, length, true);
   }
 
   public int getType() {
@@ -47,71 +82,213 @@ public class Message {
   }
 
   public byte[] getData() {
-    return messageData;
+    if (dataOffset == 0 && messageLength == messageData.length) {
+      return messageData;
+    }
+    return Arrays.copyOfRange(messageData, dataOffset, dataOffset + messageLength);
   }
 
-  private synchronized void parseDataToStringTokens() {
-    if (parsed) {
-      return;
+  /**
+   * Records the start and end offset of every token in the payload, once. Tokens are separated by
+   * spaces; a double quote at the start of a token opens a quoted token that ends at the next quote
+   * (an empty {@code ""} is a token), and stray quotes inside unquoted tokens are not part of the
+   * value. Unsynchronized: racing threads compute identical arrays and the last write wins.
+   */
+  private int[] tokenBounds() {
+    int[] bounds = tokenBounds;
+    if (bounds != null) {
+      return bounds;
     }
 
-    stringTokens = new ArrayList<>();
-    if (messageData.length == 0) {
-      parsed = true;
-      return;
-    }
-
-    boolean parsingToken = false;
-    boolean lookForEndQuote = false;
-    StringBuilder tokenBuf = new StringBuilder(32);
-
-    for (byte datum : messageData) {
-      char ch = (char) datum;
-      if (ch == ' ' && !lookForEndQuote) {
-        if (parsingToken) {
-          stringTokens.add(tokenBuf.toString());
-          tokenBuf = new StringBuilder(32);
-          parsingToken = false;
+    bounds = new int[16];
+    int count = 0;
+    int end = dataOffset + messageLength;
+    int i = dataOffset;
+    while (i < end) {
+      byte b = messageData[i];
+      if (b == ' ') {
+        i++;
+        continue;
+      }
+      int start;
+      int stop;
+      if (b == '"') {
+        start = ++i;
+        while (i < end && messageData[i] != '"') {
+          i++;
         }
-      } else if (ch == '"') {
-        if (lookForEndQuote) {
-          stringTokens.add(tokenBuf.toString());
-          tokenBuf = new StringBuilder(32);
-          parsingToken = false;
-          lookForEndQuote = false;
-        } else if (!parsingToken) { // start of new token?
-          parsingToken = true;
-          lookForEndQuote = true;
+        stop = i;
+        if (i == end && start == stop) {
+          break; // lone trailing quote
         }
+        i++;
       } else {
-        tokenBuf.append(ch);
-        parsingToken = true;
+        start = i;
+        while (i < end && messageData[i] != ' ') {
+          i++;
+        }
+        stop = i;
       }
+      if (count + 2 > bounds.length) {
+        bounds = Arrays.copyOf(bounds, bounds.length * 2);
+      }
+      bounds[count++] = start;
+      bounds[count++] = stop;
     }
-    if (tokenBuf.length() > 0) {
-      stringTokens.add(tokenBuf.toString());
-    }
-    parsed = true;
+    bounds = count == bounds.length ? bounds : Arrays.copyOf(bounds, count);
+    tokenBounds = bounds;
+    return bounds;
   }
 
   public int numDataStringTokens() {
-    parseDataToStringTokens();
-    return stringTokens.size();
+    return tokenBounds().length / 2;
   }
 
   public String getDataString() {
-    return new String(messageData, StandardCharsets.ISO_8859_1);
+    return new String(messageData, dataOffset, messageLength, StandardCharsets.ISO_8859_1);
   }
 
+  /** Same as {@link #getString(int)}. */
   public String getDataString(int index) {
-    parseDataToStringTokens();
-    if (index >= 0 && index < stringTokens.size()) {
-      return stringTokens.get(index);
+    return getString(index);
+  }
+
+  /** Returns the token at {@code index}, or null if there is no such token. */
+  public String getString(int index) {
+    int[] bounds = tokenBounds();
+    if (index < 0 || index * 2 >= bounds.length) {
+      return null;
     }
-    return null; // Or throw exception
+    int start = bounds[index * 2];
+    int stop = bounds[index * 2 + 1];
+    if (indexOfQuote(start, stop) < 0) {
+      return new String(messageData, start, stop - start, StandardCharsets.ISO_8859_1);
+    }
+    StringBuilder token = new StringBuilder(stop - start);
+    for (int i = start; i < stop; i++) {
+      if (messageData[i] != '"') {
+        token.append((char) (messageData[i] & 0xFF));
+      }
+    }
+    return token.toString();
+  }
+
+  /**
+   * Parses the token at {@code index} as a decimal int straight from the payload bytes. Behaves
+   * like {@code Integer.parseInt(getString(index))}, including the {@link NumberFormatException}.
+   */
+  public int getInt(int index) {
+    long value = parseDecimal(index, 9);
+    return value != Long.MIN_VALUE ? (int) value : Integer.parseInt(getString(index));
+  }
+
+  /** Like {@link #getInt(int)} for longs. */
+  public long getLong(int index) {
+    long value = parseDecimal(index, 18);
+    return value != Long.MIN_VALUE ? value : Long.parseLong(getString(index));
+  }
+
+  /** Whether the token at {@code index} is exactly the given ASCII string, without decoding it. */
+  public boolean equalsAscii(int index, String expected) {
+    int[] bounds = tokenBounds();
+    if (index < 0 || index * 2 >= bounds.length) {
+      return false;
+    }
+    int start = bounds[index * 2];
+    int stop = bounds[index * 2 + 1];
+    if (indexOfQuote(start, stop) >= 0) {
+      return expected.equals(getString(index));
+    }
+    if (stop - start != expected.length()) {
+      return false;
+    }
+    for (int i = 0; i < expected.length(); i++) {
+      if (messageData[start + i] != expected.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Fast path for plain, optionally negative, decimal tokens of at most {@code maxDigits} digits.
+   * Returns {@code Long.MIN_VALUE} for anything else so the caller can defer to the JDK parser.
+   */
+  private long parseDecimal(int index, int maxDigits) {
+    int[] bounds = tokenBounds();
+    if (index < 0 || index * 2 >= bounds.length) {
+      return Long.MIN_VALUE;
+    }
+    int i = bounds[index * 2];
+    int stop = bounds[index * 2 + 1];
+    boolean negative = i < stop && messageData[i] == '-';
+    if (negative) {
+      i++;
+    }
+    if (i == stop || stop - i > maxDigits) {
+      return Long.MIN_VALUE;
+    }
+    long value = 0;
+    for (; i < stop; i++) {
+      int digit = messageData[i] - '0';
+      if (digit < 0 || digit > 9) {
+        return Long.MIN_VALUE;
+      }
+      value = value * 10 + digit;
+    }
+    return negative ? -value : value;
+  }
+
+  private int indexOfQuote(int start, int stop) {
+    for (int i = start; i < stop; i++) {
+      if (messageData[i] == '"') {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /** Size of this message on the wire, header included. */
+  public int getFrameLength() {
+    return 4 + messageLength;
+  }
+
+  /** Encodes header and payload into {@code buffer}, which needs {@link #getFrameLength()} room. */
+  public void writeTo(ByteBuffer buffer) {
+    if (preEncoded) {
+      buffer.put(messageData, dataOffset - 4, messageLength + 4);
+      return;
+    }
+    writeHeaderTo(buffer);
+    buffer.put(messageData, dataOffset, messageLength);
+  }
+
+  boolean isPreEncoded() {
+    return preEncoded;
+  }
+
+  /** The whole frame of a {@link #preEncoded} message, for writing without a copy. */
+  ByteBuffer frameBuffer() {
+    return ByteBuffer.wrap(messageData, dataOffset - 4, messageLength + 4);
+  }
+
+  void writeHeaderTo(ByteBuffer buffer) {
+    buffer
+        .put((byte) messageLength)
+        .put((byte) (messageLength >> 8))
+        .put((byte) messageType)
+        .put((byte) (messageType >> 8));
+  }
+
+  /** The payload as a buffer over this message's own bytes, for writing without a copy. */
+  ByteBuffer payloadBuffer() {
+    return ByteBuffer.wrap(messageData, dataOffset, messageLength);
   }
 
   public byte[] toByteArray() {
+    if (preEncoded) {
+      return Arrays.copyOfRange(messageData, dataOffset - 4, dataOffset + messageLength);
+    }
     byte[] retArray = new byte[4 + messageLength];
 
     byte[] mType = Util.bigToLittleEndian(getType());
@@ -119,7 +296,7 @@ public class Message {
 
     System.arraycopy(mLength, 0, retArray, 0, 2);
     System.arraycopy(mType, 0, retArray, 2, 2);
-    System.arraycopy(messageData, 0, retArray, 4, messageLength);
+    System.arraycopy(messageData, dataOffset, retArray, 4, messageLength);
 
     return retArray;
   }
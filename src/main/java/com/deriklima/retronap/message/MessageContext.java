@@ -16,9 +16,10 @@ public interface MessageContext {
 
   void kill();
 
-  void startStatusUpdateThread();
+  /** Starts the periodic {@code SERVER_STATS} pushes to this session; repeated calls are no-ops. */
+  void startStatusUpdates();
 
-  void stopStatusUpdateThread();
+  void stopStatusUpdates();
 
   int getTimeConnected();
 
@@ -44,6 +45,9 @@ public interface MessageContext {
 
   SharedFile[] getShares();
 
+  /** How many files the user shares, without going to the database. 0 once the session ended. */
+  int getShareCount();
+
   List<SharedFile> search(SearchParameters params);
 
   List<SharedFile> search(ResumeParameters params);
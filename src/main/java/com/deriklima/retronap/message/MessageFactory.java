@@ -1,7 +1,6 @@
 package com.deriklima.retronap.message;
 
-import com.deriklima.retronap.util.Util;
-import java.io.DataInputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import org.springframework.stereotype.Component;
@@ -9,53 +8,50 @@ import org.springframework.stereotype.Component;
 /** MessageFactory creates Message objects given an inputstream */
 @Component
 public class MessageFactory {
+  private final FrameBufferPool bufferPool;
 
-  /** Returns null on failure to read */
-  public Message createMessage(InputStream is) throws IOException {
-    DataInputStream dis = new DataInputStream(is);
+  public MessageFactory(FrameBufferPool bufferPool) {
+    this.bufferPool = bufferPool;
+  }
 
-    byte[] mLengthBuf = blockRead(dis, 2);
-    byte[] mTypeBuf = blockRead(dis, 2);
+  /**
+   * Decoder for a long-lived connection. Its messages share pooled buffers and are only valid until
+   * the next decode, see {@link FrameDecoder}.
+   */
+  public FrameDecoder newDecoder() {
+    return new FrameDecoder(bufferPool);
+  }
 
-    if (mLengthBuf == null || mTypeBuf == null) {
+  /**
+   * Reads one self-contained message that owns its payload and may be kept indefinitely. Returns
+   * null on failure to read.
+   */
+  public Message createMessage(InputStream is) throws IOException {
+    byte[] header = new byte[FrameDecoder.HEADER_LENGTH];
+    if (blockRead(is, header) < header.length) {
       return null;
     }
 
-    int mLength = Util.littleToBigEndian(mLengthBuf);
-    int mType = Util.littleToBigEndian(mTypeBuf);
+    int mLength = (header[0] & 0xFF) | ((header[1] & 0xFF) << 8);
+    int mType = (header[2] & 0xFF) | ((header[3] & 0xFF) << 8);
     byte[] mData = new byte[mLength];
 
-    if (mLength > 0) {
-      mData = blockReadFully(dis, mLength);
+    if (blockRead(is, mData) < mLength) {
+      throw new EOFException("Stream ended inside a " + mLength + " byte payload");
     }
 
     return new Message(mType, mLength, mData);
   }
 
-  /**
-   * For use with InputStream/BufferedInputStream WARNING: THIS DOESN'T WORK. Data sometimes gets
-   * lost from stream using read()
-   */
-  private static byte[] blockRead(InputStream is, int size) throws IOException {
-    byte[] tmp = new byte[size];
+  private static int blockRead(InputStream is, byte[] buf) throws IOException {
     int bytesReadTotal = 0;
-    while (bytesReadTotal != size) {
-      int remaining = size - bytesReadTotal;
-      int bytesReadPass = is.read(tmp, bytesReadTotal, remaining);
-      if (bytesReadPass != -1) // ! end of stream
-      {
-        bytesReadTotal += bytesReadPass;
-      } else {
-        return null;
+    while (bytesReadTotal < buf.length) {
+      int bytesReadPass = is.read(buf, bytesReadTotal, buf.length - bytesReadTotal);
+      if (bytesReadPass == -1) { // end of stream
+        break;
       }
+      bytesReadTotal += bytesReadPass;
     }
-    return tmp;
-  }
-
-  /** For use with DataInputStreams */
-  private static byte[] blockReadFully(DataInputStream is, int size) throws IOException {
-    byte[] tmp = new byte[size];
-    is.readFully(tmp);
-    return tmp;
+    return bytesReadTotal;
   }
 }
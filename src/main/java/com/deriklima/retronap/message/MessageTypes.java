@@ -174,6 +174,27 @@ public class MessageTypes {
     addToken(CLIENT_DIR_SHARE_NOTIFICATION, VARIABLETOKENS);
   }
 
+  /** Channel chatter that a lagging client can miss without breaking any exchange. */
+  public static boolean isChat(int type) {
+    return type == SERVER_CHANNEL_PUBLIC_MESSAGE
+        || type == CHANNEL_EMOTE
+        || type == SERVER_CHANNEL_JOIN_NOTIFY
+        || type == SERVER_CHANNEL_LEAVE_NOTIFY;
+  }
+
+  /**
+   * Chat plus informational traffic (stats pushes, individual search, browse and resume results)
+   * whose loss degrades but does not break the client; the terminating end-of-list messages are
+   * not included.
+   */
+  public static boolean isNonCritical(int type) {
+    return isChat(type)
+        || type == SERVER_STATS
+        || type == SERVER_SEARCH_RESPONSE
+        || type == SERVER_BROWSE_USER_RESPONSE
+        || type == SERVER_RESUME_LIST_ENTRY;
+  }
+
   public static int getNumTokens(int type) {
     Integer mType = tokens.get(type);
     if (mType != null) return mType;
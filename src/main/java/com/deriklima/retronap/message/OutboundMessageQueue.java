@@ -1,85 +1,331 @@
 package com.deriklima.retronap.message;
 
-import java.io.BufferedOutputStream;
+import com.deriklima.retronap.config.RetroNapConfig;
+import com.deriklima.retronap.config.RetroNapConfig.OverflowPolicy;
 import java.io.IOException;
-import java.io.OutputStream;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 import lombok.extern.slf4j.Slf4j;
 
-/** A queue for outbound messages, so threads don't contend over the OutputStream */
+/**
+ * A queue for outbound messages, so threads don't contend over the connection. The queue has no
+ * thread of its own: the first message queued while it is idle schedules a writer on the shared
+ * executor, which drains it and goes away again, so at most one writer per queue ever runs and
+ * messages leave in the order they were queued.
+ *
+ * <p>Everything queued by the time the writer runs goes out as one batch: small frames are encoded
+ * into a reusable buffer, large payloads are written straight from their own arrays, and the sink
+ * is flushed once per batch.
+ *
+ * <p>The queue is bounded in messages and bytes. A client that stops reading eventually fills it,
+ * at which point the configured {@link OverflowPolicy} decides whether queued messages, the new
+ * message or the whole session are given up.
+ */
 @Slf4j
-public class OutboundMessageQueue extends Thread {
+public class OutboundMessageQueue {
+  /** Payloads at least this big are gathered from their own array instead of being copied. */
+  private static final int GATHER_THRESHOLD = 4096;
 
-  private final BlockingQueue<Message> queue = new LinkedBlockingQueue<>();
-  private volatile boolean running = false;
+  private static final int MAX_SEGMENTS = 64;
+
+  private final Queue<Message> queue = new ConcurrentLinkedQueue<>();
+  private final AtomicInteger queuedMessages = new AtomicInteger();
+  private final AtomicLong queuedBytes = new AtomicLong();
+  private final AtomicBoolean scheduled = new AtomicBoolean();
+  private volatile boolean running = true;
   private volatile boolean invalidated = false;
-  private final OutputStream os;
-  private final int timeoutMs;
+  private volatile boolean writing = false;
+  private volatile long lastActivity = System.nanoTime();
+  private final FrameSink sink;
+  private final Executor writer;
+  private final long timeoutNanos;
+  private final int maxBatchBytes;
+  private final long maxBatchDelayNanos;
+  private final int maxQueuedMessages;
+  private final long maxQueuedBytes;
+  private final OverflowPolicy overflowPolicy;
+  private final OutboundQueueMetrics metrics;
+  private final ByteBuffer batch;
+  private final ByteBuffer[] segments = new ByteBuffer[MAX_SEGMENTS];
 
-  public OutboundMessageQueue(OutputStream os, int timeoutSeconds) {
-    this.timeoutMs = timeoutSeconds > 0 ? timeoutSeconds * 1000 : 0;
-    this.os = new BufferedOutputStream(os);
+  /**
+   * @param writer executor the drain task runs on, see {@link OutboundWriteScheduler}
+   * @param timeoutSeconds the sink is closed after this long without outbound traffic, 0 disables
+   * @param settings batching and bounds, see {@link RetroNapConfig.Outbound}
+   */
+  public OutboundMessageQueue(
+      FrameSink sink,
+      Executor writer,
+      int timeoutSeconds,
+      RetroNapConfig.Outbound settings,
+      OutboundQueueMetrics metrics) {
+    this.sink = sink;
+    this.writer = writer;
+    this.timeoutNanos = TimeUnit.SECONDS.toNanos(Math.max(timeoutSeconds, 0));
+    this.maxBatchBytes = Math.max(settings.getMaxBatchBytes(), 1);
+    this.maxBatchDelayNanos =
+        TimeUnit.MILLISECONDS.toNanos(Math.max(settings.getMaxBatchDelayMs(), 0));
+    this.maxQueuedMessages = Math.max(settings.getMaxQueuedMessages(), 1);
+    // a single frame of any size must always fit into an otherwise empty queue
+    this.maxQueuedBytes =
+        Math.max(
+            settings.getMaxQueuedBytes(),
+            FrameDecoder.HEADER_LENGTH + FrameDecoder.MAX_PAYLOAD_LENGTH);
+    this.overflowPolicy = settings.getOverflowPolicy();
+    this.metrics = metrics;
+    // below maxBatchBytes there is always room for one more small frame
+    this.batch = sink.allocateBuffer(this.maxBatchBytes + GATHER_THRESHOLD + 4);
   }
 
   public void queueMessage(Message m) throws InvalidatedQueueException {
     if (isInvalid()) {
       throw new InvalidatedQueueException("Queue has been invalidated");
     }
-    if (!queue.offer(m)) {
-      log.warn("Could not add message to queue, it might be full.");
+    enqueue(m);
+    scheduleDrain();
+  }
+
+  /**
+   * Queues several messages in order and wakes the writer once, so unless the byte budget splits
+   * them, they go out in a single write.
+   */
+  public void queueMessages(List<Message> messages) throws InvalidatedQueueException {
+    if (isInvalid()) {
+      throw new InvalidatedQueueException("Queue has been invalidated");
+    }
+    for (Message m : messages) {
+      enqueue(m);
+    }
+    scheduleDrain();
+  }
+
+  private void enqueue(Message m) throws InvalidatedQueueException {
+    if (!reserve(m) && !makeRoom(m)) {
+      return;
     }
+    queue.offer(m);
+    lastActivity = System.nanoTime();
+  }
+
+  /**
+   * Takes a message slot and the message's bytes out of the budget if both are left. Producers
+   * run on many threads, so checking and counting happen in one step or the bounds would leak.
+   */
+  private boolean reserve(Message m) {
+    int messages;
+    do {
+      messages = queuedMessages.get();
+      if (messages >= maxQueuedMessages) {
+        return false;
+      }
+    } while (!queuedMessages.compareAndSet(messages, messages + 1));
+    int length = m.getFrameLength();
+    long bytes;
+    do {
+      bytes = queuedBytes.get();
+      if (bytes + length > maxQueuedBytes) {
+        queuedMessages.decrementAndGet();
+        return false;
+      }
+    } while (!queuedBytes.compareAndSet(bytes, bytes + length));
+    return true;
+  }
+
+  /**
+   * Applies the overflow policy for an incoming message that does not fit. Returns whether it may
+   * be queued, with its budget reserved; if not, it was either dropped or the session was
+   * disconnected.
+   */
+  private synchronized boolean makeRoom(Message incoming) throws InvalidatedQueueException {
+    for (Message queued : queue) {
+      if (reserve(incoming)) {
+        return true;
+      }
+      if (isDroppable(queued.getType()) && queue.remove(queued)) {
+        dequeued(queued);
+        metrics.messageDropped(overflowPolicy);
+      }
+    }
+    if (reserve(incoming)) {
+      return true;
+    }
+    if (isDroppable(incoming.getType())) {
+      metrics.messageDropped(overflowPolicy);
+      return false;
+    }
+    log.warn(
+        "Outbound queue full ({} messages, {} bytes), disconnecting slow client",
+        queuedMessages.get(),
+        queuedBytes.get());
+    metrics.sessionDisconnected(overflowPolicy);
+    abort();
+    throw new InvalidatedQueueException("Queue overflowed and has been invalidated");
+  }
+
+  private boolean isDroppable(int type) {
+    return switch (overflowPolicy) {
+      case DROP_OLDEST_CHAT -> MessageTypes.isChat(type);
+      case DROP_NON_CRITICAL -> MessageTypes.isNonCritical(type);
+      case DISCONNECT -> false;
+    };
+  }
+
+  private Message poll() {
+    Message m = queue.poll();
+    if (m != null) {
+      dequeued(m);
+    }
+    return m;
+  }
+
+  private void dequeued(Message m) {
+    queuedMessages.decrementAndGet();
+    queuedBytes.addAndGet(-m.getFrameLength());
   }
 
-  @Override
-  public void run() {
-    running = true;
-    try (os) {
-      while (running) {
+  private void scheduleDrain() {
+    if (scheduled.compareAndSet(false, true)) {
+      try {
+        writer.execute(this::drain);
+      } catch (RejectedExecutionException e) {
+        log.debug("Writer executor shut down, dropping outbound messages");
+      }
+    }
+  }
+
+  /** Writes batches until the queue is empty; closes the sink instead once the queue stopped. */
+  private void drain() {
+    try {
+      while (true) {
+        if (!running) {
+          closeSink();
+          return; // leaves 'scheduled' set, nothing will be written anymore
+        }
+        // set before polling, so the queue never looks idle while a message is on its way out
+        writing = true;
+        Message first;
         try {
-          Message sm =
-              queue.poll(timeoutMs > 0 ? timeoutMs : Long.MAX_VALUE, TimeUnit.MILLISECONDS);
-          if (sm == null) {
-            if (timeoutMs > 0) {
-              log.info("Queue idle timeout reached, stopping.");
-              stopQueue();
-            }
-            continue;
+          first = poll();
+          if (first != null) {
+            writeBatch(first);
           }
-
-          byte[] byteBuf = sm.toByteArray();
-          os.write(byteBuf);
-          os.flush();
-          log.debug("[SENT]: {}", sm);
-        } catch (InterruptedException e) {
-          if (running) {
-            log.warn("Queue thread interrupted unexpectedly.");
-          } else {
-            log.info("Queue thread interrupted for shutdown.");
+        } finally {
+          writing = false;
+        }
+        if (first == null) {
+          scheduled.set(false);
+          // a producer may have queued after our poll but before the flag was cleared
+          if ((queue.isEmpty() && running) || !scheduled.compareAndSet(false, true)) {
+            return;
           }
-          Thread.currentThread().interrupt();
-          break; // Exit loop
-        } catch (IOException e) {
-          log.warn("Stopping thread: IOException in OutboundMessageQueue: {}", e.getMessage());
-          invalidate();
         }
       }
+    } catch (IOException e) {
+      log.warn("Stopping writer: IOException in OutboundMessageQueue: {}", e.getMessage());
+      abort();
+    } catch (RuntimeException e) {
+      log.error("Stopping writer after unexpected failure", e);
+      abort();
+    }
+  }
+
+  private void abort() {
+    invalidated = true;
+    running = false;
+    closeSink();
+  }
+
+  private void closeSink() {
+    queue.clear();
+    queuedMessages.set(0);
+    queuedBytes.set(0);
+    try {
+      sink.close();
     } catch (IOException e) {
       log.error("Error closing output stream", e);
     }
   }
 
-  public void startQueue() {
+  private void writeBatch(Message first) throws IOException {
+    long deadline = System.nanoTime() + maxBatchDelayNanos;
+    int count = 0;
+    int segmentStart = 0;
+    int bytes = 0;
+    batch.clear();
+    for (Message m = first; m != null; m = nextForBatch(bytes, count, deadline)) {
+      if (m.getLength() >= GATHER_THRESHOLD && m.isPreEncoded()) {
+        if (batch.position() > segmentStart) {
+          segments[count++] = batch.slice(segmentStart, batch.position() - segmentStart);
+          segmentStart = batch.position();
+        }
+        segments[count++] = m.frameBuffer();
+      } else if (m.getLength() >= GATHER_THRESHOLD) {
+        m.writeHeaderTo(batch);
+        segments[count++] = batch.slice(segmentStart, batch.position() - segmentStart);
+        segments[count++] = m.payloadBuffer();
+        segmentStart = batch.position();
+      } else {
+        m.writeTo(batch);
+      }
+      bytes += m.getFrameLength();
+      log.debug("[SENT]: {}", m);
+    }
+    if (batch.position() > segmentStart) {
+      segments[count++] = batch.slice(segmentStart, batch.position() - segmentStart);
+    }
+    try {
+      sink.write(segments, count);
+    } finally {
+      Arrays.fill(segments, 0, count, null);
+    }
+  }
+
+  /** Next message to add to the current batch, or null once the batch should be flushed. */
+  private Message nextForBatch(int bytes, int count, long deadline) {
+    if (bytes >= maxBatchBytes || count + 3 > MAX_SEGMENTS) {
+      return null;
+    }
+    Message next = poll();
+    long wait = deadline - System.nanoTime();
+    if (next == null && wait > 0) {
+      // producers don't wake the writer, so linger once for the rest of the budget
+      LockSupport.parkNanos(wait);
+      next = poll();
+    }
+    return next;
+  }
+
+  /**
+   * Called periodically by the {@link OutboundWriteScheduler}: stops the queue once it has been
+   * idle for longer than the session timeout. Returns whether the queue still needs watching.
+   */
+  boolean checkIdle(long now) {
     if (!running) {
-      start();
+      return false;
+    }
+    if (timeoutNanos > 0 && !scheduled.get() && now - lastActivity > timeoutNanos) {
+      log.info("Queue idle timeout reached, stopping.");
+      stopQueue();
+      return false;
     }
+    return true;
   }
 
+  /** Discards anything still queued and closes the sink once a running batch is done. */
   public void stopQueue() {
     if (running) {
       running = false;
-      this.interrupt();
+      scheduleDrain();
     }
   }
 
@@ -92,11 +338,12 @@ public class OutboundMessageQueue extends Thread {
     return invalidated;
   }
 
+  /** Whether messages are still waiting or a batch is being written. */
   public boolean hasMessages() {
-    return !queue.isEmpty();
+    return running && (!queue.isEmpty() || writing);
   }
 
   public void flushQueue() {
-    // Not strictly needed with a blocking queue, but can be a no-op
+    // Not strictly needed, writers are scheduled as soon as a message is queued
   }
 }
@@ -0,0 +1,40 @@
+package com.deriklima.retronap.message;
+
+import com.deriklima.retronap.config.RetroNapConfig.OverflowPolicy;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import org.springframework.stereotype.Component;
+
+/** Counts what the outbound queue overflow policies had to give up, per policy. */
+@Component
+public class OutboundQueueMetrics {
+  private final Map<OverflowPolicy, LongAdder> droppedMessages =
+      new EnumMap<>(OverflowPolicy.class);
+  private final Map<OverflowPolicy, LongAdder> disconnects = new EnumMap<>(OverflowPolicy.class);
+
+  public OutboundQueueMetrics() {
+    for (OverflowPolicy policy : OverflowPolicy.values()) {
+      droppedMessages.put(policy, new LongAdder());
+      disconnects.put(policy, new LongAdder());
+    }
+  }
+
+  void messageDropped(OverflowPolicy policy) {
+    droppedMessages.get(policy).increment();
+  }
+
+  void sessionDisconnected(OverflowPolicy policy) {
+    disconnects.get(policy).increment();
+  }
+
+  /** Messages evicted or refused because a queue was full. */
+  public long getDroppedMessages(OverflowPolicy policy) {
+    return droppedMessages.get(policy).sum();
+  }
+
+  /** Sessions disconnected because nothing could be dropped to make room. */
+  public long getDisconnects(OverflowPolicy policy) {
+    return disconnects.get(policy).sum();
+  }
+}
@@ -0,0 +1,59 @@
+package com.deriklima.retronap.message;
+
+import com.deriklima.retronap.config.RetroNapConfig;
+import jakarta.annotation.PreDestroy;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.springframework.stereotype.Component;
+
+/**
+ * Runs the writers of every {@link OutboundMessageQueue}. A queue only occupies a (virtual) thread
+ * while it has something to write, and a single sweeper thread enforces the idle timeout that used
+ * to be the poll timeout of each queue's own writer thread.
+ */
+@Component
+public class OutboundWriteScheduler {
+  private static final long IDLE_SWEEP_INTERVAL_MS = 1000;
+
+  private final RetroNapConfig config;
+  private final OutboundQueueMetrics metrics;
+  private final ExecutorService writers = Executors.newVirtualThreadPerTaskExecutor();
+  private final ScheduledExecutorService idleSweeper =
+      Executors.newSingleThreadScheduledExecutor(
+          Thread.ofPlatform().name("outbound-idle-sweeper").daemon().factory());
+  private final Set<OutboundMessageQueue> queues = ConcurrentHashMap.newKeySet();
+
+  public OutboundWriteScheduler(RetroNapConfig config, OutboundQueueMetrics metrics) {
+    this.config = config;
+    this.metrics = metrics;
+    idleSweeper.scheduleWithFixedDelay(
+        this::sweepIdleQueues,
+        IDLE_SWEEP_INTERVAL_MS,
+        IDLE_SWEEP_INTERVAL_MS,
+        TimeUnit.MILLISECONDS);
+  }
+
+  /** Creates a queue writing to {@code sink}, configured from {@code retronap.outbound}. */
+  public OutboundMessageQueue newQueue(FrameSink sink) {
+    OutboundMessageQueue queue =
+        new OutboundMessageQueue(
+            sink, writers, config.getServer().getSessionTimeout(), config.getOutbound(), metrics);
+    queues.add(queue);
+    return queue;
+  }
+
+  private void sweepIdleQueues() {
+    long now = System.nanoTime();
+    queues.removeIf(queue -> !queue.checkIdle(now));
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    idleSweeper.shutdownNow();
+    writers.shutdown();
+  }
+}
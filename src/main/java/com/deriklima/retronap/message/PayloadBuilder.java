@@ -0,0 +1,70 @@
+package com.deriklima.retronap.message;
+
+import java.util.Arrays;
+
+/**
+ * Builds message payloads straight into a reusable byte array, for replies that send many similar
+ * messages in a row. Characters are written as ISO-8859-1 like the String constructor of {@link
+ * Message} does, numbers without going through a String, and {@link #build(int)} makes the only
+ * copy. Not thread-safe.
+ */
+public final class PayloadBuilder {
+  private byte[] buffer;
+  private int length;
+
+  public PayloadBuilder(int initialCapacity) {
+    this.buffer = new byte[Math.max(initialCapacity, 16)];
+  }
+
+  public PayloadBuilder append(char c) {
+    ensureCapacity(1);
+    buffer[length++] = (byte) (c <= 0xFF ? c : '?');
+    return this;
+  }
+
+  public PayloadBuilder append(String s) {
+    if (s == null) {
+      s = "null";
+    }
+    ensureCapacity(s.length());
+    for (int i = 0; i < s.length(); i++) {
+      char c = s.charAt(i);
+      buffer[length++] = (byte) (c <= 0xFF ? c : '?');
+    }
+    return this;
+  }
+
+  public PayloadBuilder append(long value) {
+    if (value == Long.MIN_VALUE) {
+      return append(Long.toString(value));
+    }
+    if (value < 0) {
+      append('-');
+      value = -value;
+    }
+    int digits = 1;
+    for (long rest = value / 10; rest > 0; rest /= 10) {
+      digits++;
+    }
+    ensureCapacity(digits);
+    for (int i = length + digits - 1; i >= length; i--) {
+      buffer[i] = (byte) ('0' + value % 10);
+      value /= 10;
+    }
+    length += digits;
+    return this;
+  }
+
+  /** Creates a message from what was appended so far and starts over. */
+  public Message build(int type) {
+    Message message = new Message(type, Arrays.copyOf(buffer, length), 0, length);
+    length = 0;
+    return message;
+  }
+
+  private void ensureCapacity(int extra) {
+    if (length + extra > buffer.length) {
+      buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + extra));
+    }
+  }
+}
@@ -0,0 +1,52 @@
+package com.deriklima.retronap.message;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * {@link FrameSink} over a blocking {@link OutputStream}. Small segments are coalesced in a stream
+ * buffer so that a batch usually leaves in a single write.
+ */
+public class StreamFrameSink implements FrameSink {
+  private static final int STREAM_BUFFER_SIZE = 64 * 1024;
+
+  private final OutputStream raw;
+  private final OutputStream os;
+
+  public StreamFrameSink(OutputStream os) {
+    this.raw = os;
+    this.os = new BufferedOutputStream(os, STREAM_BUFFER_SIZE);
+  }
+
+  @Override
+  public ByteBuffer allocateBuffer(int capacity) {
+    return ByteBuffer.allocate(capacity);
+  }
+
+  @Override
+  public void write(ByteBuffer[] buffers, int count) throws IOException {
+    for (int i = 0; i < count; i++) {
+      ByteBuffer buffer = buffers[i];
+      if (buffer.hasArray()) {
+        os.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+        buffer.position(buffer.limit());
+      } else {
+        byte[] copy = new byte[buffer.remaining()];
+        buffer.get(copy);
+        os.write(copy);
+      }
+    }
+    os.flush();
+  }
+
+  /**
+   * Closes the underlying stream without flushing: batches are flushed as they are written, and a
+   * writer stuck on a client that stopped reading must not hold up whoever closes the sink.
+   */
+  @Override
+  public void close() throws IOException {
+    raw.close();
+  }
+}
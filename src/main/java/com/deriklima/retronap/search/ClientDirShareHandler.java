@@ -21,10 +21,12 @@ import org.springframework.stereotype.Component;
 @Slf4j
 public class ClientDirShareHandler extends MessageHandler {
 
-  private final SharedFileService sharedFileService;
+  private final SharedFileWriter sharedFileWriter;
+  private final ShareIndex shareIndex;
 
-  public ClientDirShareHandler(SharedFileService sharedFileService) {
-    this.sharedFileService = sharedFileService;
+  public ClientDirShareHandler(SharedFileWriter sharedFileWriter, ShareIndex shareIndex) {
+    this.sharedFileWriter = sharedFileWriter;
+    this.shareIndex = shareIndex;
     addPreConditionChecker(new UserLoggedInChecker());
     ConditionChecker validMessageChecker =
         new ConditionChecker() {
@@ -43,26 +45,27 @@ public class ClientDirShareHandler extends MessageHandler {
   }
 
   protected void processMessage(Message m, MessageContext session) {
-    String dir = m.getDataString(0);
+    String dir = m.getString(0);
 
     MessageContext userState = session;
     User user = userState.getUser();
 
     List<SharedFile> sharedFiles = new ArrayList<>();
 
+    int numTokens = m.numDataStringTokens();
     int x = 1;
-    while (x < m.numDataStringTokens()) {
-      String filename = m.getDataString(x);
+    while (x < numTokens) {
+      String filename = m.getString(x);
       x++;
-      String md5 = m.getDataString(x);
+      String md5 = m.getString(x);
       x++;
-      int size = Integer.parseInt(m.getDataString(x));
+      int size = m.getInt(x);
       x++;
-      int bitrate = Integer.parseInt(m.getDataString(x));
+      int bitrate = m.getInt(x);
       x++;
-      int freq = Integer.parseInt(m.getDataString(x));
+      int freq = m.getInt(x);
       x++;
-      int time = Integer.parseInt(m.getDataString(x));
+      int time = m.getInt(x);
       x++;
 
       String absolutePath = dir + filename;
@@ -72,7 +75,10 @@ public class ClientDirShareHandler extends MessageHandler {
 
       userState.addShare(share);
     }
-    sharedFileService.saveAll(sharedFiles, user.getId());
+    sharedFileWriter.add(user.getId(), sharedFiles);
+    for (SharedFile share : sharedFiles) {
+      shareIndex.add(session, share);
+    }
   }
 
   @Override
@@ -16,28 +16,31 @@ import org.springframework.stereotype.Component;
 @Slf4j
 public class ClientShareNotificationHandler extends MessageHandler {
 
-  private final SharedFileService sharedFileService;
+  private final SharedFileWriter sharedFileWriter;
+  private final ShareIndex shareIndex;
 
-  public ClientShareNotificationHandler(SharedFileService sharedFileService) {
-    this.sharedFileService = sharedFileService;
+  public ClientShareNotificationHandler(SharedFileWriter sharedFileWriter, ShareIndex shareIndex) {
+    this.sharedFileWriter = sharedFileWriter;
+    this.shareIndex = shareIndex;
     addPreConditionChecker(new UserLoggedInChecker());
     addPreConditionChecker(new ValidMessageChecker());
   }
 
   protected void processMessage(Message m, MessageContext session) {
-    String absolutePath = m.getDataString(0);
-    String md5 = m.getDataString(1);
-    int size = Integer.parseInt(m.getDataString(2));
-    int bitrate = Integer.parseInt(m.getDataString(3));
-    int freq = Integer.parseInt(m.getDataString(4));
-    int time = Integer.parseInt(m.getDataString(5));
+    String absolutePath = m.getString(0);
+    String md5 = m.getString(1);
+    int size = m.getInt(2);
+    int bitrate = m.getInt(3);
+    int freq = m.getInt(4);
+    int time = m.getInt(5);
 
     SharedFile share = new SharedFile("", "", absolutePath, md5, size, bitrate, freq, time);
     // Persist share ownership so DB insert satisfies non-null FK and search/browse are consistent.
     share.setUser(session.getUser());
     MessageContext userState = session;
     userState.addShare(share);
-    sharedFileService.save(share);
+    sharedFileWriter.add(session.getUserId(), List.of(share));
+    shareIndex.add(session, share);
   }
 
   @Override
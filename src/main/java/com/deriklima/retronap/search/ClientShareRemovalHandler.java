@@ -15,7 +15,10 @@ import org.springframework.stereotype.Component;
 @Slf4j
 public class ClientShareRemovalHandler extends MessageHandler {
 
-  public ClientShareRemovalHandler() {
+  private final ShareIndex shareIndex;
+
+  public ClientShareRemovalHandler(ShareIndex shareIndex) {
+    this.shareIndex = shareIndex;
     addPreConditionChecker(new UserLoggedInChecker());
     addPreConditionChecker(new ValidMessageChecker());
   }
@@ -25,6 +28,7 @@ public class ClientShareRemovalHandler extends MessageHandler {
 
     MessageContext userState = session;
     userState.removeShareByFilename(filename);
+    shareIndex.remove(session, filename);
   }
 
   @Override
@@ -1,5 +1,6 @@
 package com.deriklima.retronap.search;
 
+import com.deriklima.retronap.config.RetroNapConfig;
 import com.deriklima.retronap.message.*;
 import com.deriklima.retronap.message.MessageContext;
 import com.deriklima.retronap.message.UserLoggedInChecker;
@@ -8,6 +9,7 @@ import com.deriklima.retronap.model.SearchResult;
 import com.deriklima.retronap.model.SharedFile;
 import com.deriklima.retronap.util.Util;
 import java.util.List;
+import java.util.function.Predicate;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Component;
 
@@ -16,52 +18,57 @@ import org.springframework.stereotype.Component;
 @Slf4j
 public class NewClientSearchRequestHandler extends MessageHandler {
 
-  private static final int MAX_RESULTS = 100;
+  /** Used when the client doesn't ask for a number of results. */
+  private static final int DEFAULT_MAX_RESULTS = 100;
 
   private final Message endSearchResultsMessage =
       new Message(MessageTypes.SERVER_END_SEARCH_RESULTS, "");
 
   private final SharedFileService sharedFileService;
+  private final ShareIndex shareIndex;
+  private final RetroNapConfig config;
 
-  public NewClientSearchRequestHandler(SharedFileService sharedFileService) {
+  public NewClientSearchRequestHandler(
+      SharedFileService sharedFileService, ShareIndex shareIndex, RetroNapConfig config) {
     this.sharedFileService = sharedFileService;
+    this.shareIndex = shareIndex;
+    this.config = config;
     addPreConditionChecker(new UserLoggedInChecker());
     addPreConditionChecker(new ValidMessageChecker());
   }
 
-  private static StringBuffer getStringBuffer(SearchResult sr) {
+  private static Message toMessage(SearchResult sr, PayloadBuilder payload) {
     SharedFile share = sr.getShare();
     // "<filename>" <md5> <size> <bitrate> <frequency> <length> <nick> <ip> <link-type>
-    StringBuffer msgBuf = new StringBuffer(256);
-    msgBuf.append("\"");
-    msgBuf.append(share.getAbsolutePath());
-    msgBuf.append("\" ");
-    msgBuf.append(share.getMd5Signature());
-    msgBuf.append(" ");
-    msgBuf.append(share.getSize());
-    msgBuf.append(" ");
-    msgBuf.append(share.getBitrate());
-    msgBuf.append(" ");
-    msgBuf.append(share.getFrequency());
-    msgBuf.append(" ");
-    msgBuf.append(share.getSeconds());
-    msgBuf.append(" ");
-    msgBuf.append(sr.getNickname());
-    msgBuf.append(" ");
-    msgBuf.append(Util.byteArrayToLongIPAddress(sr.getIpAddress()));
-    msgBuf.append(" ");
-    msgBuf.append(sr.getLinkType());
-    return msgBuf;
+    return payload
+        .append('"')
+        .append(share.getAbsolutePath())
+        .append("\" ")
+        .append(share.getMd5Signature())
+        .append(' ')
+        .append(share.getSize())
+        .append(' ')
+        .append(share.getBitrate())
+        .append(' ')
+        .append(share.getFrequency())
+        .append(' ')
+        .append(share.getSeconds())
+        .append(' ')
+        .append(sr.getNickname())
+        .append(' ')
+        .append(Util.byteArrayToLongIPAddress(sr.getIpAddress()))
+        .append(' ')
+        .append(sr.getLinkType())
+        .build(MessageTypes.SERVER_SEARCH_RESPONSE);
   }
 
-  private static NewSearchParameters getSearchParams(Message m, int totalTokens) {
+  private NewSearchParameters getSearchParams(Message m, int totalTokens) {
     // FILENAME CONTAINS "blink 182" MAX_RESULTS 100 FILENAME CONTAINS "miss you" LINESPEED "AT
     // BEST" 7 BITRATE "AT LEAST" "96"
     NewSearchParameters params = new NewSearchParameters();
     int x = 0;
     while (x < totalTokens) {
-      String token = m.getDataString(x);
-      if ("FILENAME".equals(token)) // artist name
+      if (m.equalsAscii(x, "FILENAME")) // artist name
       {
         if (x == 0) {
           params.setArtistName(m.getDataString(x + 2));
@@ -70,24 +77,26 @@ public class NewClientSearchRequestHandler extends MessageHandler {
           params.setSongName(m.getDataString(x + 2));
         }
         x = x + 2;
-      } else if ("MAX_RESULTS".equals(token)) {
-        params.setMaxResults(Integer.parseInt(m.getDataString(x + 1)));
+      } else if (m.equalsAscii(x, "MAX_RESULTS")) {
+        params.setMaxResults(m.getInt(x + 1));
         x = x + 1;
-      } else if ("LINESPEED".equals(token)) {
+      } else if (m.equalsAscii(x, "LINESPEED")) {
         params.setLinespeedOperator(m.getDataString(x + 1));
-        params.setLineSpeed(Integer.parseInt(m.getDataString(x + 2)));
+        params.setLineSpeed(m.getInt(x + 2));
         x = x + 2;
-      } else if ("BITRATE".equals(token)) {
+      } else if (m.equalsAscii(x, "BITRATE")) {
         params.setBitrateOperator(m.getDataString(x + 1));
-        params.setBitrate(Integer.parseInt(m.getDataString(x + 2)));
+        params.setBitrate(m.getInt(x + 2));
         x = x + 2;
       }
       x++;
     }
 
     int maxResults = params.getMaxResults();
-    if (maxResults <= 0 || maxResults > MAX_RESULTS) {
-      params.setMaxResults(MAX_RESULTS);
+    if (maxResults <= 0) {
+      params.setMaxResults(DEFAULT_MAX_RESULTS);
+    } else {
+      params.setMaxResults(Math.min(maxResults, config.getSearch().getMaxResults()));
     }
     return params;
   }
@@ -100,14 +109,23 @@ public class NewClientSearchRequestHandler extends MessageHandler {
     int totalTokens = m.numDataStringTokens();
     NewSearchParameters params = getSearchParams(m, totalTokens);
 
+    // results are queued as the backend finds them, nothing is collected first
+    PayloadBuilder payload = new PayloadBuilder(256);
+    Predicate<SearchResult> sink =
+        sr -> {
+          try {
+            queue.queueMessage(toMessage(sr, payload));
+            return true;
+          } catch (InvalidatedQueueException iqe) {
+            return false;
+          }
+        };
+    if (config.searchesIndex()) {
+      shareIndex.search(params, sink);
+    } else {
+      sharedFileService.searchWithParams(params, sink);
+    }
     try {
-      List<SearchResult> results = sharedFileService.searchWithParams(params);
-      if (results != null) {
-        for (SearchResult sr : results) {
-          StringBuffer msgBuf = getStringBuffer(sr);
-          queue.queueMessage(new Message(MessageTypes.SERVER_SEARCH_RESPONSE, msgBuf.toString()));
-        }
-      }
       queue.queueMessage(endSearchResultsMessage);
     } catch (InvalidatedQueueException iqe) {
     }
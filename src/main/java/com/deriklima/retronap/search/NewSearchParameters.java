@@ -1,5 +1,6 @@
 package com.deriklima.retronap.search;
 
+import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.NoArgsConstructor;
 import lombok.Setter;
@@ -14,9 +15,72 @@ public class NewSearchParameters {
   private int bitrate;
   private int lineSpeed;
 
-  public void setLinespeedOperator(String operator) {}
+  @Setter(AccessLevel.NONE)
+  private Operator bitrateOperator = Operator.ANY;
 
-  public void setBitrateOperator(String operator) {}
+  @Setter(AccessLevel.NONE)
+  private Operator linespeedOperator = Operator.ANY;
+
+  /** The comparisons a Napster search can apply to numeric fields. */
+  public enum Operator {
+    ANY,
+    AT_LEAST,
+    AT_BEST,
+    EQUAL_TO;
+
+    /** Parses "AT LEAST", "AT BEST" or "EQUAL TO"; anything else means no constraint. */
+    static Operator parse(String operator) {
+      if (operator == null) {
+        return ANY;
+      }
+      return switch (operator.trim().toUpperCase()) {
+        case "AT LEAST" -> AT_LEAST;
+        case "AT BEST" -> AT_BEST;
+        case "EQUAL TO" -> EQUAL_TO;
+        default -> ANY;
+      };
+    }
+
+    int lowerBound(int value) {
+      return this == AT_LEAST || this == EQUAL_TO ? value : 0;
+    }
+
+    int upperBound(int value) {
+      return this == AT_BEST || this == EQUAL_TO ? value : Integer.MAX_VALUE;
+    }
+  }
+
+  public void setLinespeedOperator(String operator) {
+    linespeedOperator = Operator.parse(operator);
+  }
+
+  public void setBitrateOperator(String operator) {
+    bitrateOperator = Operator.parse(operator);
+  }
+
+  public int getMinBitrate() {
+    return bitrateOperator.lowerBound(bitrate);
+  }
+
+  public int getMaxBitrate() {
+    return bitrateOperator.upperBound(bitrate);
+  }
+
+  public int getMinLineSpeed() {
+    return linespeedOperator.lowerBound(lineSpeed);
+  }
+
+  public int getMaxLineSpeed() {
+    return linespeedOperator.upperBound(lineSpeed);
+  }
+
+  /** Whether a share with this bitrate, shared over this link type, passes the filters. */
+  public boolean matches(int shareBitrate, int linkType) {
+    return shareBitrate >= getMinBitrate()
+        && shareBitrate <= getMaxBitrate()
+        && linkType >= getMinLineSpeed()
+        && linkType <= getMaxLineSpeed();
+  }
 
   public String getSearchToken() {
     if (artistName == null && songName == null) {
@@ -1,5 +1,6 @@
 package com.deriklima.retronap.search;
 
+import com.deriklima.retronap.config.RetroNapConfig;
 import com.deriklima.retronap.message.*;
 import com.deriklima.retronap.message.MessageContext;
 import com.deriklima.retronap.message.UserLoggedInChecker;
@@ -9,38 +10,44 @@ import com.deriklima.retronap.model.SearchResult;
 import com.deriklima.retronap.model.SharedFile;
 import com.deriklima.retronap.util.Util;
 import java.util.List;
+import java.util.function.Predicate;
 import org.springframework.stereotype.Component;
 
 /** Handles client search request messages from client. */
 @Component
 public class ResumeRequestHandler extends MessageHandler {
   private final Message endResultsMessage = new Message(MessageTypes.SERVER_RESUME_LIST_END, "");
-  private final SearchService searchService;
+  private final ShareIndex shareIndex;
+  private final SharedFileService sharedFileService;
+  private final RetroNapConfig config;
 
-  public ResumeRequestHandler(SearchService searchService) {
-    this.searchService = searchService;
+  public ResumeRequestHandler(
+      ShareIndex shareIndex, SharedFileService sharedFileService, RetroNapConfig config) {
+    this.shareIndex = shareIndex;
+    this.sharedFileService = sharedFileService;
+    this.config = config;
     addPreConditionChecker(new UserLoggedInChecker());
     addPreConditionChecker(new ValidMessageChecker());
   }
 
-  private static StringBuffer getStringBuffer(SearchResult sr) {
+  private static Message toMessage(SearchResult sr, PayloadBuilder payload) {
     SharedFile share = sr.getShare();
-    //	<user> <ip> <port> <filename> <checksum> <size> <speed>
-    StringBuffer msgBuf = new StringBuffer(256);
-    msgBuf.append(sr.getNickname());
-    msgBuf.append(" ");
-    msgBuf.append(Util.byteArrayToLongIPAddress(sr.getIpAddress()));
-    msgBuf.append(" ");
-    msgBuf.append(sr.getPort());
-    msgBuf.append(" \"");
-    msgBuf.append(share.getAbsolutePath());
-    msgBuf.append("\" ");
-    msgBuf.append(share.getMd5Signature());
-    msgBuf.append(" ");
-    msgBuf.append(share.getSize());
-    msgBuf.append(" ");
-    msgBuf.append(sr.getLinkType());
-    return msgBuf;
+    // <user> <ip> <port> <filename> <checksum> <size> <speed>
+    return payload
+        .append(sr.getNickname())
+        .append(' ')
+        .append(Util.byteArrayToLongIPAddress(sr.getIpAddress()))
+        .append(' ')
+        .append(sr.getPort())
+        .append(" \"")
+        .append(share.getAbsolutePath())
+        .append("\" ")
+        .append(share.getMd5Signature())
+        .append(' ')
+        .append(share.getSize())
+        .append(' ')
+        .append(sr.getLinkType())
+        .build(MessageTypes.SERVER_RESUME_LIST_ENTRY);
   }
 
   public void processMessage(Message m, MessageContext session) {
@@ -48,16 +55,24 @@ public class ResumeRequestHandler extends MessageHandler {
     ResumeParameters params = new ResumeParameters();
 
     params.setChecksum(m.getDataString(0));
-    params.setFilesize(Integer.parseInt(m.getDataString(1)));
+    params.setFilesize(m.getInt(1));
 
+    PayloadBuilder payload = new PayloadBuilder(256);
+    Predicate<SearchResult> sink =
+        sr -> {
+          try {
+            queue.queueMessage(toMessage(sr, payload));
+            return true;
+          } catch (InvalidatedQueueException iqe) {
+            return false;
+          }
+        };
+    if (config.searchesIndex()) {
+      shareIndex.searchResumable(params, sink);
+    } else {
+      sharedFileService.searchResumable(params, sink);
+    }
     try {
-      List<SearchResult> results = searchService.searchForShares(params);
-      if (results != null) {
-        for (SearchResult sr : results) {
-          StringBuffer msgBuf = getStringBuffer(sr);
-          queue.queueMessage(new Message(MessageTypes.SERVER_RESUME_LIST_ENTRY, msgBuf.toString()));
-        }
-      }
       queue.queueMessage(endResultsMessage);
     } catch (InvalidatedQueueException iqe) {
     }
@@ -0,0 +1,35 @@
+package com.deriklima.retronap.search;
+
+import java.util.UUID;
+
+/**
+ * The columns of one {@code SERVER_SEARCH_RESPONSE} or {@code SERVER_RESUME_LIST_ENTRY} line, read
+ * straight from {@code shared_file} joined with its owner instead of hydrating both entities.
+ */
+interface SearchHit {
+  UUID getUserId();
+
+  String getDir();
+
+  String getFilename();
+
+  String getAbsolutePath();
+
+  String getMd5Signature();
+
+  int getSize();
+
+  int getBitrate();
+
+  int getFrequency();
+
+  int getSeconds();
+
+  String getNickname();
+
+  byte[] getIpAddress();
+
+  int getLinkSpeed();
+
+  int getDataPort();
+}
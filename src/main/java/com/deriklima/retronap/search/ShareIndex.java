@@ -0,0 +1,289 @@
+package com.deriklima.retronap.search;
+
+import com.deriklima.retronap.message.MessageContext;
+import com.deriklima.retronap.model.ResumeParameters;
+import com.deriklima.retronap.model.SearchResult;
+import com.deriklima.retronap.model.SharedFile;
+import com.deriklima.retronap.model.User;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.function.Predicate;
+import org.springframework.stereotype.Component;
+
+/**
+ * In-memory inverted index over the files shared by connected users, so searches and resume
+ * lookups don't need a database round-trip. Paths are split into lower-cased alphanumeric terms; a
+ * search matches the shares that have, for every term of the query, a term starting with it.
+ * Resume lookups go through a separate map keyed by checksum and size.
+ *
+ * <p>A query is driven by its rarest term: only that term's postings are walked, each candidate is
+ * checked against the remaining terms, and results are handed out as they are found until there
+ * are enough.
+ *
+ * <p>Query terms shorter than {@value #MIN_PREFIX_LENGTH} characters only match whole terms, since
+ * as prefixes they would expand over a large part of the term dictionary on every search.
+ *
+ * <p>Shares are kept per session rather than per user: a user who reconnects may announce their
+ * library on the new session before the old one has finished cleaning up, and that cleanup must
+ * only drop the old session's shares.
+ */
+@Component
+public class ShareIndex {
+  static final int MIN_PREFIX_LENGTH = 3;
+
+  /**
+   * One indexed share. The owner's details are read when a result is built, so a changed link
+   * speed or data port shows in the next search.
+   */
+  private record Posting(SharedFile share, String[] terms, MessageContext owner) {
+    SearchResult toResult() {
+      return new SearchResult(
+          share, owner.getNickname(), owner.getIPAddress(), owner.getLinkSpeedValue());
+    }
+
+    // by identity: a share only has an id once it is queued for the database
+    @Override
+    public boolean equals(Object o) {
+      return this == o;
+    }
+
+    @Override
+    public int hashCode() {
+      return System.identityHashCode(this);
+    }
+  }
+
+  /** What a resume request (215) looks files up by. */
+  private record Checksum(String md5, int size) {}
+
+  private final Map<String, Set<Posting>> postings = new ConcurrentHashMap<>();
+
+  /** The keys of {@link #postings}, sorted for prefix lookups. */
+  private final NavigableSet<String> terms = new ConcurrentSkipListSet<>();
+
+  private final Map<MessageContext, Map<String, Posting>> sharesBySession =
+      new ConcurrentHashMap<>();
+  private final Map<Checksum, Set<Posting>> sharesByChecksum = new ConcurrentHashMap<>();
+
+  /** Indexes a share of {@code owner}, replacing any earlier share with the same path. */
+  public void add(MessageContext owner, SharedFile share) {
+    if (owner.getUserId() == null) {
+      return;
+    }
+    Posting posting = new Posting(share, tokenize(share.getAbsolutePath()), owner);
+    Posting replaced =
+        sharesBySession
+            .computeIfAbsent(owner, session -> new ConcurrentHashMap<>())
+            .put(share.getAbsolutePath(), posting);
+    if (replaced != null) {
+      unindex(replaced);
+    }
+    for (String term : posting.terms()) {
+      postings.compute(
+          term,
+          (key, set) -> {
+            if (set == null) {
+              set = ConcurrentHashMap.newKeySet();
+              terms.add(key);
+            }
+            set.add(posting);
+            return set;
+          });
+    }
+    if (share.getMd5Signature() != null) {
+      sharesByChecksum.compute(
+          checksumOf(share),
+          (key, set) -> {
+            set = set != null ? set : ConcurrentHashMap.newKeySet();
+            set.add(posting);
+            return set;
+          });
+    }
+  }
+
+  public void remove(MessageContext owner, String absolutePath) {
+    Map<String, Posting> shares = sharesBySession.get(owner);
+    Posting posting = shares != null ? shares.remove(absolutePath) : null;
+    if (posting != null) {
+      unindex(posting);
+    }
+  }
+
+  /** Drops every share announced on a session, called when it ends. */
+  public void removeAll(MessageContext owner) {
+    Map<String, Posting> shares = sharesBySession.remove(owner);
+    if (shares != null) {
+      shares.values().forEach(this::unindex);
+    }
+  }
+
+  private void unindex(Posting posting) {
+    for (String term : posting.terms()) {
+      postings.computeIfPresent(
+          term,
+          (key, set) -> {
+            set.remove(posting);
+            if (set.isEmpty()) {
+              terms.remove(key);
+              return null;
+            }
+            return set;
+          });
+    }
+    if (posting.share().getMd5Signature() != null) {
+      sharesByChecksum.computeIfPresent(
+          checksumOf(posting.share()),
+          (key, set) -> {
+            set.remove(posting);
+            return set.isEmpty() ? null : set;
+          });
+    }
+  }
+
+  private static Checksum checksumOf(SharedFile share) {
+    return new Checksum(share.getMd5Signature(), share.getSize());
+  }
+
+  /**
+   * Hands up to {@code params.getMaxResults()} shares with the requested checksum and size to
+   * {@code sink}, with the owner's current data port filled in. Stops early once the sink returns
+   * false.
+   */
+  public void searchResumable(ResumeParameters params, Predicate<SearchResult> sink) {
+    Set<Posting> matching =
+        sharesByChecksum.get(new Checksum(params.getChecksum(), params.getFilesize()));
+    if (matching == null) {
+      return;
+    }
+    int found = 0;
+    for (Posting posting : matching) {
+      SearchResult result = posting.toResult();
+      User owner = posting.owner().getUser();
+      result.setPort(owner != null ? owner.getDataPort() : 0);
+      if (!sink.test(result) || ++found >= params.getMaxResults()) {
+        return;
+      }
+    }
+  }
+
+  /**
+   * Hands up to {@code params.getMaxResults()} shares matching every term of the query and its
+   * bitrate and line speed filters to {@code sink}, as they are found. Stops early once the sink
+   * returns false.
+   */
+  public void search(NewSearchParameters params, Predicate<SearchResult> sink) {
+    String[] queryTerms = tokenize(params.getSearchToken());
+    int limit = params.getMaxResults();
+    if (queryTerms.length == 0 || limit <= 0) {
+      return;
+    }
+
+    // the rarest term drives the walk, the others are checked per candidate
+    List<Set<Posting>> driver = null;
+    int driverSize = Integer.MAX_VALUE;
+    int driverIndex = -1;
+    for (int i = 0; i < queryTerms.length; i++) {
+      List<Set<Posting>> matching = new ArrayList<>();
+      int size = postingsMatching(queryTerms[i], driverSize, matching);
+      if (size == 0) {
+        return;
+      }
+      if (size < driverSize) {
+        driver = matching;
+        driverSize = size;
+        driverIndex = i;
+      }
+    }
+
+    // a share shows up once per driver term it has, e.g. "love" and "lovely" for "lov"
+    Set<Posting> seen = driver.size() > 1 ? new HashSet<>() : null;
+    int found = 0;
+    for (Set<Posting> set : driver) {
+      for (Posting posting : set) {
+        if (params.matches(posting.share().getBitrate(), posting.owner().getLinkSpeedValue())
+            && matchesAll(posting.terms(), queryTerms, driverIndex)
+            && (seen == null || seen.add(posting))) {
+          if (!sink.test(posting.toResult()) || ++found >= limit) {
+            return;
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Collects the postings of the terms a query term matches into {@code matching} and returns how
+   * many there are. Gives up once there are {@code atMost} or more, as the term then can't be a
+   * rarer driver; the count returned is then at least {@code atMost}.
+   */
+  private int postingsMatching(String queryTerm, int atMost, List<Set<Posting>> matching) {
+    if (queryTerm.length() < MIN_PREFIX_LENGTH) {
+      Set<Posting> set = postings.get(queryTerm);
+      if (set == null) {
+        return 0;
+      }
+      matching.add(set);
+      return set.size();
+    }
+    int size = 0;
+    for (String term : terms.subSet(queryTerm, true, queryTerm + Character.MAX_VALUE, false)) {
+      Set<Posting> set = postings.get(term);
+      if (set != null) {
+        matching.add(set);
+        size += set.size();
+        if (size >= atMost) {
+          return size;
+        }
+      }
+    }
+    return size;
+  }
+
+  private static boolean matchesAll(String[] shareTerms, String[] queryTerms, int skip) {
+    for (int i = 0; i < queryTerms.length; i++) {
+      if (i != skip && !hasMatchingTerm(shareTerms, queryTerms[i])) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static boolean hasMatchingTerm(String[] shareTerms, String queryTerm) {
+    boolean prefix = queryTerm.length() >= MIN_PREFIX_LENGTH;
+    for (String term : shareTerms) {
+      if (prefix ? term.startsWith(queryTerm) : term.equals(queryTerm)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /** Splits on anything but letters and digits, lower-cased and without duplicates. */
+  static String[] tokenize(String text) {
+    if (text == null) {
+      return new String[0];
+    }
+    List<String> tokens = new ArrayList<>();
+    int start = -1;
+    for (int i = 0; i <= text.length(); i++) {
+      boolean letterOrDigit = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+      if (letterOrDigit && start < 0) {
+        start = i;
+      } else if (!letterOrDigit && start >= 0) {
+        String token = text.substring(start, i).toLowerCase(Locale.ROOT);
+        if (!tokens.contains(token)) {
+          tokens.add(token);
+        }
+        start = -1;
+      }
+    }
+    return tokens.toArray(new String[0]);
+  }
+}
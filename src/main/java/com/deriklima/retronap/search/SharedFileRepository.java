@@ -1,11 +1,15 @@
 package com.deriklima.retronap.search;
 
 import com.deriklima.retronap.model.SharedFile;
+import jakarta.persistence.QueryHint;
 import java.util.List;
 import java.util.UUID;
+import java.util.stream.Stream;
+import org.hibernate.jpa.HibernateHints;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
@@ -29,9 +33,64 @@ interface SharedFileRepository extends JpaRepository<SharedFile, UUID> {
       nativeQuery = true)
   List<SharedFile> searchByTokens(@Param("query") String query);
 
+  /**
+   * AND-style search over the filename tokens with the bitrate and link speed bounds and the
+   * result limit applied by the database. Rows of the {@code deleted} users are left out before the
+   * limit, so they don't take the place of live results. Rows are fetched in chunks while the
+   * stream is consumed, which needs an open transaction.
+   */
+  @QueryHints(@QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "50"))
+  @Query(
+      value =
+          """
+        SELECT sf.napster_user_id AS "userId", sf.dir AS "dir", sf.filename AS "filename",
+               sf.absolute_path AS "absolutePath", sf.md5signature AS "md5Signature",
+               sf.size AS "size", sf.bitrate AS "bitrate",
+               sf.frequency AS "frequency", sf.seconds AS "seconds", u.nickname AS "nickname",
+               u.ip_address AS "ipAddress", u.link_speed AS "linkSpeed",
+               coalesce(u.data_port, 0) AS "dataPort"
+        FROM shared_file sf
+        JOIN napster_users u ON u.id = sf.napster_user_id
+        WHERE sf.filename_tsv @@ to_tsquery('simple', :query)
+          AND sf.bitrate BETWEEN :minBitrate AND :maxBitrate
+          AND u.link_speed BETWEEN :minLinkSpeed AND :maxLinkSpeed
+          AND sf.napster_user_id <> ALL(CAST(:deleted AS uuid[]))
+        LIMIT :maxResults
+        """,
+      nativeQuery = true)
+  Stream<SearchHit> streamSearchHits(
+      @Param("query") String query,
+      @Param("minBitrate") int minBitrate,
+      @Param("maxBitrate") int maxBitrate,
+      @Param("minLinkSpeed") int minLinkSpeed,
+      @Param("maxLinkSpeed") int maxLinkSpeed,
+      @Param("deleted") UUID[] deleted,
+      @Param("maxResults") int maxResults);
+
+  /** Shares with the given checksum and size, for resume requests, except the deleted users'. */
+  @Query(
+      value =
+          """
+        SELECT sf.napster_user_id AS "userId", sf.dir AS "dir", sf.filename AS "filename",
+               sf.absolute_path AS "absolutePath", sf.md5signature AS "md5Signature",
+               sf.size AS "size", sf.bitrate AS "bitrate",
+               sf.frequency AS "frequency", sf.seconds AS "seconds", u.nickname AS "nickname",
+               u.ip_address AS "ipAddress", u.link_speed AS "linkSpeed",
+               coalesce(u.data_port, 0) AS "dataPort"
+        FROM shared_file sf
+        JOIN napster_users u ON u.id = sf.napster_user_id
+        WHERE sf.md5signature = :md5 AND sf.size = :size
+          AND sf.napster_user_id <> ALL(CAST(:deleted AS uuid[]))
+        LIMIT :maxResults
+        """,
+      nativeQuery = true)
+  List<SearchHit> findResumeHits(
+      @Param("md5") String md5,
+      @Param("size") int size,
+      @Param("deleted") UUID[] deleted,
+      @Param("maxResults") int maxResults);
+
   List<SharedFile> findByBitrateAndFilename(Integer bitrate, String filename);
 
   List<SharedFile> findByFilenameContaining(String filename);
-
-  Long countByUserId(UUID userId);
 }
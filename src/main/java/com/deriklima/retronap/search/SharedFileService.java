@@ -1,10 +1,15 @@
 package com.deriklima.retronap.search;
 
+import com.deriklima.retronap.model.ResumeParameters;
 import com.deriklima.retronap.model.SearchResult;
 import com.deriklima.retronap.model.SharedFile;
 import com.deriklima.retronap.model.User;
+import java.util.Iterator;
 import java.util.List;
 import java.util.UUID;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
@@ -15,7 +20,10 @@ import org.springframework.transaction.annotation.Transactional;
 @RequiredArgsConstructor
 @Transactional(readOnly = true)
 public class SharedFileService {
+  private static final Pattern TSQUERY_SYNTAX = Pattern.compile("[&|!():*'\\\\<>]");
+
   private final SharedFileRepository sharedFileRepository;
+  private final SharedFileWriter sharedFileWriter;
 
   @Transactional
   public List<SharedFile> saveAll(List<SharedFile> records, UUID userId) {
@@ -47,20 +55,86 @@ public class SharedFileService {
     return sharedFileRepository.searchByTokens(tsQuery);
   }
 
-  public Long countByUserId(UUID userId) {
-    return sharedFileRepository.countByUserId(userId);
+  /**
+   * Hands the matches of a search to {@code sink} as rows arrive from the database, stopping early
+   * once the sink returns false. Rows of users whose shares are being deleted are left out by the
+   * query, and skipped if the deletion was queued while the rows stream in.
+   */
+  public void searchWithParams(NewSearchParameters params, Predicate<SearchResult> sink) {
+    String tsQuery = toPrefixAndQuery(params.getSearchToken());
+    if (tsQuery.isEmpty()) {
+      return;
+    }
+    log.debug("tsQuery: {}", tsQuery);
+    try (Stream<SearchHit> hits =
+        sharedFileRepository.streamSearchHits(
+            tsQuery,
+            params.getMinBitrate(),
+            params.getMaxBitrate(),
+            params.getMinLineSpeed(),
+            params.getMaxLineSpeed(),
+            sharedFileWriter.deletedUserIds(),
+            params.getMaxResults())) {
+      for (Iterator<SearchHit> it = hits.iterator(); it.hasNext(); ) {
+        SearchHit hit = it.next();
+        if (!sharedFileWriter.isDeleted(hit.getUserId()) && !sink.test(toSearchResult(hit))) {
+          break;
+        }
+      }
+    }
   }
 
-  public List<SearchResult> searchWithParams(NewSearchParameters params) {
-    String tsQuery = params.getSearchToken().trim().replaceAll("\\s+", ":* | ") + ":*";
-    log.info("tsQuery: {}", tsQuery);
-    return sharedFileRepository.searchByTokens(tsQuery).stream()
-        .map(
-            sharedFile -> {
-              User user = sharedFile.getUser();
-              return new SearchResult(
-                  sharedFile, user.getNickname(), user.getIpAddress(), user.getLinkSpeedValue());
-            })
-        .toList();
+  /** Shares with the requested checksum and size, with their owner's data port filled in. */
+  public void searchResumable(ResumeParameters params, Predicate<SearchResult> sink) {
+    List<SearchHit> hits =
+        sharedFileRepository.findResumeHits(
+            params.getChecksum(),
+            params.getFilesize(),
+            sharedFileWriter.deletedUserIds(),
+            params.getMaxResults());
+    for (SearchHit hit : hits) {
+      if (sharedFileWriter.isDeleted(hit.getUserId())) {
+        continue;
+      }
+      SearchResult result = toSearchResult(hit);
+      result.setPort(hit.getDataPort());
+      if (!sink.test(result)) {
+        break;
+      }
+    }
+  }
+
+  private static SearchResult toSearchResult(SearchHit hit) {
+    return new SearchResult(
+        new SharedFile(
+            hit.getDir(),
+            hit.getFilename(),
+            hit.getAbsolutePath(),
+            hit.getMd5Signature(),
+            hit.getSize(),
+            hit.getBitrate(),
+            hit.getFrequency(),
+            hit.getSeconds()),
+        hit.getNickname(),
+        hit.getIpAddress(),
+        hit.getLinkSpeed());
+  }
+
+  /**
+   * Turns the words of a search into {@code word:* & word:*}, dropping the characters that have a
+   * meaning in tsquery syntax so client input can't make the query invalid.
+   */
+  static String toPrefixAndQuery(String input) {
+    StringBuilder query = new StringBuilder();
+    for (String word : input.trim().split("\\s+")) {
+      String cleaned = TSQUERY_SYNTAX.matcher(word).replaceAll("");
+      if (!cleaned.isEmpty()) {
+        if (!query.isEmpty()) {
+          query.append(" & ");
+        }
+        query.append(cleaned).append(":*");
+      }
+    }
+    return query.toString();
   }
 }
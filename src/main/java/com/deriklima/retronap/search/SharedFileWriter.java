@@ -0,0 +1,248 @@
+package com.deriklima.retronap.search;
+
+import com.deriklima.retronap.config.RetroNapConfig;
+import com.deriklima.retronap.config.RetroNapConfig.ShareStorage;
+import com.deriklima.retronap.model.SharedFile;
+import com.deriklima.retronap.util.WriteBehind;
+import jakarta.annotation.PreDestroy;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+/**
+ * Write-behind persistence for shares. Clients announce their whole library right after login, one
+ * message per file or directory; instead of a transaction per message, shares are queued here and
+ * written by a single background thread in JDBC batches, once enough have piled up or the flush
+ * interval has passed. With {@code retronap.shares.storage=memory} nothing is written at all.
+ *
+ * <p>Disconnects go through the same queue: the users whose shares must go are collected and
+ * removed with one delete per flush, so a burst of disconnects doesn't become a burst of bulk
+ * deletes. Until that delete has run the user is tombstoned, and database searches skip their
+ * rows, and shares of theirs still queued are dropped rather than written and deleted again. Since
+ * inserts and deletes share one queue, the shares of a user who reconnects are written after their
+ * old rows are gone.
+ *
+ * <p>Shares that don't fit their columns are never queued; they stay searchable in memory only. If
+ * a batch fails anyway, its rows are retried one at a time, so one bad share doesn't take the rest
+ * of the batch with it. A flush writes one batch at a time, letting go of the write lock between
+ * batches.
+ */
+@Slf4j
+@Component
+public class SharedFileWriter {
+  private static final String INSERT_SHARE =
+      """
+      INSERT INTO shared_file (id, napster_user_id, md5signature, bitrate, dir, filename,
+                               absolute_path, frequency, seconds, size, created, last_modified,
+                               version)
+      VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, 0)
+      ON CONFLICT DO NOTHING
+      """;
+
+  private static final String DELETE_USERS_SHARES =
+      "DELETE FROM shared_file WHERE napster_user_id = ANY(?)";
+
+  /** Length of the dir, filename and absolute_path columns. */
+  private static final int MAX_PATH_LENGTH = 255;
+
+  private static final int MAX_MD5_LENGTH = 50;
+
+  /**
+   * A share to insert or, without a share, the deletion of every share of the user. {@code
+   * deletion} numbers a deletion; for a share it is the last deletion queued before it, so a later
+   * one can tell the share is obsolete.
+   */
+  private record PendingWrite(UUID userId, SharedFile share, long deletion) {}
+
+  private final JdbcTemplate jdbcTemplate;
+  private final boolean persistent;
+  private final int batchSize;
+  private final Queue<PendingWrite> pending = new ConcurrentLinkedQueue<>();
+  private final AtomicInteger pendingCount = new AtomicInteger();
+
+  /** Users whose shares are about to be deleted, mapped to the latest deletion queued for them. */
+  private final Map<UUID, Long> tombstones = new ConcurrentHashMap<>();
+
+  private final AtomicLong deletions = new AtomicLong();
+  private final WriteBehind writeBehind;
+
+  public SharedFileWriter(JdbcTemplate jdbcTemplate, RetroNapConfig config) {
+    this.jdbcTemplate = jdbcTemplate;
+    this.persistent = config.getShares().getStorage() == ShareStorage.DATABASE;
+    this.batchSize = Math.max(config.getShares().getWriteBatchSize(), 1);
+    // in memory mode nothing is ever queued, so there is nothing to flush
+    long interval = persistent ? Math.max(config.getShares().getWriteIntervalMs(), 1) : 0;
+    this.writeBehind = new WriteBehind("shared-file-writer", interval, this::writeNextBatch);
+  }
+
+  /** Queues shares of a user for insertion. */
+  public void add(UUID userId, List<SharedFile> shares) {
+    if (!persistent) {
+      return;
+    }
+    long lastDeletion = deletions.get();
+    int queued = 0;
+    for (SharedFile share : shares) {
+      if (!fitsColumns(share)) {
+        log.debug("Not persisting share {} of {}, too long", share.getAbsolutePath(), userId);
+        continue;
+      }
+      if (share.getId() == null) {
+        share.setId(UUID.randomUUID());
+      }
+      pending.add(new PendingWrite(userId, share, lastDeletion));
+      queued++;
+    }
+    if (pendingCount.addAndGet(queued) >= batchSize && !writeBehind.requestFlush()) {
+      log.debug("Share writer shut down, shares will not be persisted");
+    }
+  }
+
+  /**
+   * Queues the deletion of every share of a user and hides their rows from database searches until
+   * it has run. Shares of the user still queued are dropped instead of written; rows already
+   * written are gone once the delete has run.
+   */
+  public void deleteAllByUserId(UUID userId) {
+    if (!persistent) {
+      return;
+    }
+    long deletion = deletions.incrementAndGet();
+    tombstones.put(userId, deletion);
+    pending.add(new PendingWrite(userId, null, deletion));
+  }
+
+  private static boolean fitsColumns(SharedFile share) {
+    return share.getAbsolutePath() != null
+        && share.getAbsolutePath().length() <= MAX_PATH_LENGTH
+        && (share.getDir() == null || share.getDir().length() <= MAX_PATH_LENGTH)
+        && (share.getFilename() == null || share.getFilename().length() <= MAX_PATH_LENGTH)
+        && (share.getMd5Signature() == null || share.getMd5Signature().length() <= MAX_MD5_LENGTH);
+  }
+
+  /** The users whose rows are about to be deleted, for queries to leave out. */
+  UUID[] deletedUserIds() {
+    return tombstones.keySet().toArray(new UUID[0]);
+  }
+
+  /** Whether the rows of a user are about to be deleted and shouldn't be handed out. */
+  boolean isDeleted(UUID userId) {
+    return userId != null && tombstones.containsKey(userId);
+  }
+
+  void flush() {
+    writeBehind.flush();
+  }
+
+  /** Writes up to one batch of what is queued; returns whether there may be more. */
+  private boolean writeNextBatch() {
+    List<PendingWrite> inserts = new ArrayList<>(batchSize);
+    Map<UUID, Long> deletes = new LinkedHashMap<>();
+    PendingWrite next;
+    while (inserts.size() + deletes.size() < batchSize && (next = pending.poll()) != null) {
+      UUID userId = next.userId();
+      if (next.share() == null) {
+        // whatever is still queued for the user would be deleted right after
+        inserts.removeIf(p -> p.userId().equals(userId));
+        deletes.put(userId, next.deletion());
+        continue;
+      }
+      pendingCount.decrementAndGet();
+      if (!isObsolete(next)) {
+        inserts.add(next);
+      }
+    }
+    boolean full = inserts.size() + deletes.size() >= batchSize;
+    write(deletes, inserts);
+    return full;
+  }
+
+  /** Whether a deletion of the user's shares was queued after the share. */
+  private boolean isObsolete(PendingWrite insert) {
+    Long deletion = tombstones.get(insert.userId());
+    return deletion != null && deletion > insert.deletion();
+  }
+
+  /** Runs the deletes first, as the inserts may be shares of a user who has reconnected. */
+  private void write(Map<UUID, Long> deletes, List<PendingWrite> inserts) {
+    if (!deletes.isEmpty()) {
+      delete(deletes);
+      deletes.clear();
+    }
+    if (!inserts.isEmpty()) {
+      insert(inserts);
+      inserts.clear();
+    }
+  }
+
+  private void delete(Map<UUID, Long> deletes) {
+    Object[] userIds = deletes.keySet().toArray();
+    try {
+      jdbcTemplate.update(
+          DELETE_USERS_SHARES,
+          ps -> ps.setArray(1, ps.getConnection().createArrayOf("uuid", userIds)));
+    } catch (DataAccessException e) {
+      log.error("Failed to delete the shares of {} users", userIds.length, e);
+    }
+    // users who disconnected again in the meantime stay tombstoned for the newer deletion
+    deletes.forEach(tombstones::remove);
+  }
+
+  private void insert(List<PendingWrite> batch) {
+    Timestamp now = new Timestamp(System.currentTimeMillis());
+    try {
+      jdbcTemplate.batchUpdate(INSERT_SHARE, batch, batch.size(), (ps, p) -> bind(ps, p, now));
+    } catch (DataAccessException e) {
+      // rows the batch did write are skipped by ON CONFLICT, their ids are already taken
+      log.warn("Failed to persist a batch of {} shares, retrying one by one", batch.size(), e);
+      for (PendingWrite p : batch) {
+        try {
+          jdbcTemplate.update(INSERT_SHARE, ps -> bind(ps, p, now));
+        } catch (DataAccessException rowFailure) {
+          log.error(
+              "Failed to persist share {} of {}",
+              p.share().getAbsolutePath(),
+              p.userId(),
+              rowFailure);
+        }
+      }
+    }
+  }
+
+  private static void bind(PreparedStatement ps, PendingWrite p, Timestamp now)
+      throws SQLException {
+    SharedFile share = p.share();
+    ps.setObject(1, share.getId());
+    ps.setObject(2, p.userId());
+    ps.setString(3, share.getMd5Signature());
+    ps.setInt(4, share.getBitrate());
+    ps.setString(5, share.getDir() != null ? share.getDir() : "");
+    ps.setString(6, share.getFilename() != null ? share.getFilename() : "");
+    ps.setString(7, share.getAbsolutePath());
+    ps.setInt(8, share.getFrequency());
+    ps.setInt(9, share.getSeconds());
+    ps.setInt(10, share.getSize());
+    ps.setTimestamp(11, now);
+    ps.setTimestamp(12, now);
+  }
+
+  /** Writes the shares still queued while the data source is still there. */
+  @PreDestroy
+  public void shutdown() {
+    writeBehind.shutdown();
+  }
+}
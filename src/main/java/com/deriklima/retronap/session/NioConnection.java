@@ -0,0 +1,262 @@
+package com.deriklima.retronap.session;
+
+import com.deriklima.retronap.message.FrameBufferPool;
+import com.deriklima.retronap.message.FrameDecoder;
+import com.deriklima.retronap.message.FrameSink;
+import com.deriklima.retronap.message.Message;
+import com.deriklima.retronap.util.SerialExecutor;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * One client connection served by an {@link NioEventLoop}. The loop thread only moves bytes into a
+ * pooled buffer: once a complete frame is buffered, reads are paused and the frames are decoded and
+ * dispatched to the {@link Session} on a serial executor, so a session still sees its messages one
+ * at a time and in order, and a slow handler pushes back on the client instead of growing the
+ * buffer.
+ */
+@Slf4j
+class NioConnection implements SessionTransport {
+  private final SocketChannel channel;
+  private final NioEventLoop loop;
+  private final Session session;
+  private final FrameBufferPool bufferPool;
+  private final InetAddress address;
+  private final SerialExecutor inbound;
+  private final FrameSink frameSink = new ChannelFrameSink();
+  private final AtomicBoolean closed = new AtomicBoolean();
+  private final Object writeLock = new Object();
+  private boolean writable;
+
+  /**
+   * Borrowed from the pool while there is unprocessed input, null otherwise. Filled by the loop
+   * thread, drained by the inbound executor while reads are paused.
+   */
+  private ByteBuffer readBuffer;
+
+  // only touched on the loop thread
+  private SelectionKey key;
+  private boolean readPaused;
+  private boolean writeWanted;
+
+  NioConnection(
+      SocketChannel channel,
+      NioEventLoop loop,
+      Session session,
+      FrameBufferPool bufferPool,
+      Executor dispatcher)
+      throws IOException {
+    this.channel = channel;
+    this.loop = loop;
+    this.session = session;
+    this.bufferPool = bufferPool;
+    this.address = ((InetSocketAddress) channel.getRemoteAddress()).getAddress();
+    this.inbound = new SerialExecutor(dispatcher);
+  }
+
+  /** Announces the session and starts reading from the client. */
+  void open() {
+    inbound.execute(session::open);
+    loop.register(this);
+  }
+
+  void register(Selector selector) {
+    if (closed.get()) {
+      return;
+    }
+    try {
+      key = channel.register(selector, SelectionKey.OP_READ, this);
+    } catch (ClosedChannelException e) {
+      close();
+    }
+  }
+
+  void onReadable() {
+    try {
+      if (readBuffer == null) {
+        readBuffer = bufferPool.acquire();
+      }
+      if (channel.read(readBuffer) < 0) {
+        log.debug("End of stream reached for {}", address.getHostAddress());
+        close();
+        return;
+      }
+      if (hasCompleteFrame()) {
+        readPaused = true;
+        updateInterest();
+        inbound.execute(this::dispatchFrames);
+      } else if (readBuffer.position() == 0) {
+        releaseReadBuffer();
+      }
+    } catch (IOException e) {
+      log.debug("Client {} disconnected abruptly: {}", address.getHostAddress(), e.getMessage());
+      close();
+    }
+  }
+
+  void onWritable() {
+    writeWanted = false;
+    updateInterest();
+    synchronized (writeLock) {
+      writable = true;
+      writeLock.notifyAll();
+    }
+  }
+
+  private void dispatchFrames() {
+    ByteBuffer buffer = readBuffer;
+    buffer.flip();
+    try {
+      Message message;
+      while (!closed.get() && (message = FrameDecoder.decode(buffer)) != null) {
+        session.dispatch(message);
+      }
+    } catch (RuntimeException e) {
+      log.warn("Closing {} after dispatch failure", address.getHostAddress(), e);
+      close();
+    } finally {
+      buffer.compact();
+    }
+    if (buffer.position() == 0) {
+      releaseReadBuffer();
+    }
+    if (!closed.get()) {
+      loop.execute(this::resumeReads);
+    }
+  }
+
+  private void resumeReads() {
+    readPaused = false;
+    updateInterest();
+  }
+
+  /** Frames always start at index 0 since the buffer is compacted after every dispatch. */
+  private boolean hasCompleteFrame() {
+    int buffered = readBuffer.position();
+    if (buffered < FrameDecoder.HEADER_LENGTH) {
+      return false;
+    }
+    int length = (readBuffer.get(0) & 0xFF) | ((readBuffer.get(1) & 0xFF) << 8);
+    return buffered >= FrameDecoder.HEADER_LENGTH + length;
+  }
+
+  private void releaseReadBuffer() {
+    bufferPool.release(readBuffer);
+    readBuffer = null;
+  }
+
+  private void updateInterest() {
+    if (key == null || !key.isValid()) {
+      return;
+    }
+    try {
+      key.interestOps(
+          (readPaused ? 0 : SelectionKey.OP_READ) | (writeWanted ? SelectionKey.OP_WRITE : 0));
+    } catch (CancelledKeyException e) {
+      // closed concurrently, nothing left to watch
+    }
+  }
+
+  /** Parks the writing thread until the selector reports the socket writable again. */
+  private void awaitWritable() throws IOException {
+    synchronized (writeLock) {
+      writable = false;
+    }
+    loop.execute(
+        () -> {
+          writeWanted = true;
+          updateInterest();
+        });
+    synchronized (writeLock) {
+      while (!writable && !closed.get()) {
+        try {
+          writeLock.wait();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new InterruptedIOException("Interrupted waiting for socket to drain");
+        }
+      }
+    }
+    if (closed.get()) {
+      throw new ClosedChannelException();
+    }
+  }
+
+  @Override
+  public InetAddress getInetAddress() {
+    return address;
+  }
+
+  @Override
+  public FrameSink openFrameSink() {
+    return frameSink;
+  }
+
+  @Override
+  public boolean isClosed() {
+    return closed.get();
+  }
+
+  /** Closes the channel and schedules the session cleanup behind any in-flight dispatch. */
+  @Override
+  public void close() {
+    if (!closed.compareAndSet(false, true)) {
+      return;
+    }
+    try {
+      channel.close();
+    } catch (IOException e) {
+      log.debug("Error closing channel for {}", address.getHostAddress(), e);
+    }
+    synchronized (writeLock) {
+      writeLock.notifyAll();
+    }
+    inbound.execute(session::close);
+  }
+
+  /**
+   * Gathering writes straight from the outbound queue's direct buffer, parking the writer while
+   * the socket send buffer is full.
+   */
+  private final class ChannelFrameSink implements FrameSink {
+
+    @Override
+    public ByteBuffer allocateBuffer(int capacity) {
+      return ByteBuffer.allocateDirect(capacity);
+    }
+
+    @Override
+    public void write(ByteBuffer[] buffers, int count) throws IOException {
+      long remaining = 0;
+      for (int i = 0; i < count; i++) {
+        remaining += buffers[i].remaining();
+      }
+      while (remaining > 0) {
+        if (closed.get()) {
+          throw new ClosedChannelException();
+        }
+        long written = channel.write(buffers, 0, count);
+        remaining -= written;
+        if (written == 0) {
+          awaitWritable();
+        }
+      }
+    }
+
+    @Override
+    public void close() {
+      NioConnection.this.close();
+    }
+  }
+}
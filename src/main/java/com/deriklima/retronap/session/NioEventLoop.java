@@ -0,0 +1,88 @@
+package com.deriklima.retronap.session;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * A single selector thread multiplexing many {@link NioConnection}s. All interest-set changes are
+ * funnelled through {@link #execute(Runnable)} so that only the loop thread ever touches its keys.
+ */
+@Slf4j
+class NioEventLoop implements Runnable {
+  private final Selector selector;
+  private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+  private final Thread thread;
+  private volatile boolean running = true;
+
+  NioEventLoop(String name) throws IOException {
+    this.selector = Selector.open();
+    this.thread = Thread.ofPlatform().name(name).daemon().unstarted(this);
+  }
+
+  void start() {
+    thread.start();
+  }
+
+  /** Runs the task on the loop thread, waking the selector if called from elsewhere. */
+  void execute(Runnable task) {
+    tasks.add(task);
+    if (Thread.currentThread() != thread) {
+      selector.wakeup();
+    }
+  }
+
+  void register(NioConnection connection) {
+    execute(() -> connection.register(selector));
+  }
+
+  @Override
+  public void run() {
+    while (running) {
+      try {
+        runTasks();
+        selector.select();
+        runTasks();
+        for (SelectionKey key : selector.selectedKeys()) {
+          NioConnection connection = (NioConnection) key.attachment();
+          if (key.isValid() && key.isReadable()) {
+            connection.onReadable();
+          }
+          if (key.isValid() && key.isWritable()) {
+            connection.onWritable();
+          }
+        }
+        selector.selectedKeys().clear();
+      } catch (IOException e) {
+        log.error("Selector failure in {}", thread.getName(), e);
+      }
+    }
+    for (SelectionKey key : selector.keys()) {
+      ((NioConnection) key.attachment()).close();
+    }
+    try {
+      selector.close();
+    } catch (IOException e) {
+      log.warn("Error closing selector", e);
+    }
+  }
+
+  private void runTasks() {
+    Runnable task;
+    while ((task = tasks.poll()) != null) {
+      try {
+        task.run();
+      } catch (RuntimeException e) {
+        log.error("Event loop task failed", e);
+      }
+    }
+  }
+
+  void shutdown() {
+    running = false;
+    selector.wakeup();
+  }
+}
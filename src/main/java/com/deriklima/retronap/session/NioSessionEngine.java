@@ -0,0 +1,80 @@
+package com.deriklima.retronap.session;
+
+import com.deriklima.retronap.config.RetroNapConfig;
+import com.deriklima.retronap.message.FrameBufferPool;
+import java.io.IOException;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.stereotype.Component;
+
+/**
+ * Selector-based alternative to the thread-per-session model, enabled with {@code
+ * retronap.server.io-mode=nio}. Accepted channels are spread round-robin over a fixed set of event
+ * loops; decoded messages are handed to the regular {@link Session} dispatch on virtual threads
+ * that only exist while a connection actually has input to process.
+ */
+@Slf4j
+@Component
+public class NioSessionEngine {
+  private final ObjectProvider<Session> sessionProvider;
+  private final FrameBufferPool bufferPool;
+  private final int ioThreads;
+  private final AtomicInteger nextLoop = new AtomicInteger();
+  private final ExecutorService dispatcher = Executors.newVirtualThreadPerTaskExecutor();
+  private volatile NioEventLoop[] loops;
+
+  public NioSessionEngine(
+      ObjectProvider<Session> sessionProvider, FrameBufferPool bufferPool, RetroNapConfig config) {
+    this.sessionProvider = sessionProvider;
+    this.bufferPool = bufferPool;
+    int configured = config.getServer().getIoThreads();
+    this.ioThreads = configured > 0 ? configured : Runtime.getRuntime().availableProcessors();
+  }
+
+  public synchronized void start() throws IOException {
+    if (loops != null) {
+      return;
+    }
+    NioEventLoop[] started = new NioEventLoop[ioThreads];
+    for (int i = 0; i < ioThreads; i++) {
+      started[i] = new NioEventLoop("nio-event-loop-" + i);
+      started[i].start();
+    }
+    loops = started;
+    log.info("Started {} NIO event loops", ioThreads);
+  }
+
+  /** Takes ownership of a freshly accepted channel and starts serving it. */
+  public void accept(SocketChannel channel) throws IOException {
+    channel.configureBlocking(false);
+    NioEventLoop loop = loops[Math.floorMod(nextLoop.getAndIncrement(), loops.length)];
+    Session session = sessionProvider.getObject();
+    NioConnection connection = new NioConnection(channel, loop, session, bufferPool, dispatcher);
+    session.init(connection);
+    connection.open();
+  }
+
+  public synchronized void shutdown() {
+    if (loops == null) {
+      return;
+    }
+    for (NioEventLoop loop : loops) {
+      loop.shutdown();
+    }
+    loops = null;
+    dispatcher.shutdown();
+    try {
+      if (!dispatcher.awaitTermination(5, TimeUnit.SECONDS)) {
+        dispatcher.shutdownNow();
+      }
+    } catch (InterruptedException e) {
+      dispatcher.shutdownNow();
+      Thread.currentThread().interrupt();
+    }
+  }
+}
@@ -1,6 +1,7 @@
 package com.deriklima.retronap.session;
 
 import com.deriklima.retronap.config.RetroNapConfig;
+import com.deriklima.retronap.message.FrameDecoder;
 import com.deriklima.retronap.message.InvalidatedQueueException;
 import com.deriklima.retronap.message.Message;
 import com.deriklima.retronap.message.MessageContext;
@@ -9,20 +10,21 @@ import com.deriklima.retronap.message.MessageHandler;
 import com.deriklima.retronap.message.MessageHandlerFactory;
 import com.deriklima.retronap.message.MessageTypes;
 import com.deriklima.retronap.message.OutboundMessageQueue;
+import com.deriklima.retronap.message.OutboundWriteScheduler;
 import com.deriklima.retronap.model.ResumeParameters;
 import com.deriklima.retronap.model.SearchParameters;
 import com.deriklima.retronap.model.SharedFile;
 import com.deriklima.retronap.model.User;
-import com.deriklima.retronap.search.SharedFileService;
+import com.deriklima.retronap.search.ShareIndex;
+import com.deriklima.retronap.search.SharedFileWriter;
 import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.Socket;
 import java.util.List;
 import java.util.UUID;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.context.ApplicationEventPublisher;
@@ -44,8 +46,21 @@ public class Session implements Runnable, MessageContext {
   private final MessageHandlerFactory messageHandlerFactory;
   private final RetroNapConfig config;
   private final ApplicationEventPublisher eventPublisher;
-  private final SharedFileService sharedFileService;
-  private Socket socket;
+  private final SharedFileWriter sharedFileWriter;
+  private final ShareIndex shareIndex;
+  private final OutboundWriteScheduler outboundWriteScheduler;
+
+  @Getter(AccessLevel.NONE)
+  private final StatusUpdateWheel statusUpdateWheel;
+
+  @Getter(AccessLevel.NONE)
+  private final SessionManager sessionManager;
+
+  @Getter(AccessLevel.NONE)
+  private SessionTransport transport;
+
+  @Getter(AccessLevel.NONE)
+  private final AtomicBoolean closed = new AtomicBoolean();
 
   /**
    * Note: no other objects should maintain a reference to this queue, it may be invalidated at any
@@ -54,7 +69,10 @@ public class Session implements Runnable, MessageContext {
   private OutboundMessageQueue outboundMessageQueue;
 
   private long timeAtWhichConnected;
-  private ScheduledExecutorService statusUpdateExecutor;
+
+  /** Slot of this session in the {@link StatusUpdateWheel}, -1 while not receiving updates. */
+  @Getter(AccessLevel.NONE)
+  private int statusUpdateSlot = -1;
 
   public Session(
       UserState userState,
@@ -62,56 +80,54 @@ public class Session implements Runnable, MessageContext {
       MessageHandlerFactory messageHandlerFactory,
       RetroNapConfig config,
       ApplicationEventPublisher eventPublisher,
-      SharedFileService sharedFileService) {
+      SharedFileWriter sharedFileWriter,
+      ShareIndex shareIndex,
+      OutboundWriteScheduler outboundWriteScheduler,
+      StatusUpdateWheel statusUpdateWheel,
+      SessionManager sessionManager) {
     this.userState = userState;
     this.messageFactory = messageFactory;
     this.messageHandlerFactory = messageHandlerFactory;
     this.config = config;
     this.eventPublisher = eventPublisher;
-    this.sharedFileService = sharedFileService;
+    this.sharedFileWriter = sharedFileWriter;
+    this.shareIndex = shareIndex;
+    this.outboundWriteScheduler = outboundWriteScheduler;
+    this.statusUpdateWheel = statusUpdateWheel;
+    this.sessionManager = sessionManager;
   }
 
   public void init(Socket socket) throws IOException {
-    this.socket = socket;
-    this.outboundMessageQueue =
-        new OutboundMessageQueue(socket.getOutputStream(), config.getServer().getSessionTimeout());
-    outboundMessageQueue.startQueue();
-    getUserState().setIPAddress(socket.getInetAddress().getAddress());
+    init(new SocketTransport(socket));
+  }
+
+  void init(SessionTransport transport) throws IOException {
+    this.transport = transport;
+    this.outboundMessageQueue = outboundWriteScheduler.newQueue(transport.openFrameSink());
+    getUserState().setIPAddress(transport.getInetAddress().getAddress());
     this.timeAtWhichConnected = System.currentTimeMillis();
   }
 
+  /** Blocking I/O model: reads and dispatches messages on the calling thread until EOF. */
   @Override
   public void run() {
-    eventPublisher.publishEvent(new SessionEvent(this, SessionEvent.REGISTER));
+    if (!(transport instanceof SocketTransport localTransport)) {
+      throw new IllegalStateException("Only sessions over a socket read on their own thread");
+    }
+    open();
 
-    final Socket localSocket = socket;
-    try (localSocket;
-        InputStream is = localSocket.getInputStream()) {
-      while (!Thread.currentThread().isInterrupted() && !localSocket.isClosed()) {
+    FrameDecoder decoder = messageFactory.newDecoder();
+    try (localTransport;
+        InputStream is = localTransport.getInputStream()) {
+      while (!Thread.currentThread().isInterrupted() && !localTransport.isClosed()) {
         Message clientMessage = null;
         try {
-          clientMessage = messageFactory.createMessage(is);
+          clientMessage = decoder.decode(is);
         } catch (EOFException e) {
           log.warn("End of stream reached for session: {}", getUserState().getNickname());
         }
         if (clientMessage != null) {
-          log.debug(
-              "[RECEIVED] (USER={}, IP: {}): {}",
-              getUserState().getNickname(),
-              socket.getInetAddress().getHostAddress(),
-              clientMessage);
-          MessageHandler handler = messageHandlerFactory.getHandlerForType(clientMessage.getType());
-          try {
-            handler.handleMessage(clientMessage, this);
-          } catch (Exception e) {
-            log.error("Error handling message: {}", handler.getClass().getSimpleName(), e);
-            try {
-              outboundMessageQueue.queueMessage(
-                  new Message(MessageTypes.SERVER_ERROR, "Server Error"));
-            } catch (InvalidatedQueueException ex) {
-              throw new RuntimeException(ex);
-            }
-          }
+          dispatch(clientMessage);
         } else {
           break;
         }
@@ -121,6 +137,38 @@ public class Session implements Runnable, MessageContext {
           "Client {} disconnected abruptly. Probably the machine went into sleeping mode...",
           getUserState().getNickname());
     } finally {
+      decoder.release();
+      close();
+    }
+  }
+
+  void open() {
+    eventPublisher.publishEvent(new SessionEvent(this, SessionEvent.REGISTER));
+  }
+
+  /** Hands one client message to its handler, answering with a server error if it blows up. */
+  void dispatch(Message clientMessage) {
+    log.debug(
+        "[RECEIVED] (USER={}, IP: {}): {}",
+        getUserState().getNickname(),
+        transport.getInetAddress().getHostAddress(),
+        clientMessage);
+    MessageHandler handler = messageHandlerFactory.getHandlerForType(clientMessage.getType());
+    try {
+      handler.handleMessage(clientMessage, this);
+    } catch (Exception e) {
+      log.error("Error handling message: {}", handler.getClass().getSimpleName(), e);
+      try {
+        outboundMessageQueue.queueMessage(new Message(MessageTypes.SERVER_ERROR, "Server Error"));
+      } catch (InvalidatedQueueException ex) {
+        throw new RuntimeException(ex);
+      }
+    }
+  }
+
+  /** Runs the session cleanup once, whichever I/O model noticed the disconnect first. */
+  void close() {
+    if (closed.compareAndSet(false, true)) {
       cleanup();
     }
   }
@@ -128,16 +176,17 @@ public class Session implements Runnable, MessageContext {
   private void cleanup() {
     log.debug("Cleaning up session...");
     eventPublisher.publishEvent(new SessionEvent(this, SessionEvent.TERMINATE));
-    stopStatusUpdateThread();
+    stopStatusUpdates();
     outboundMessageQueue.invalidate();
     getUserState().removeStatistics();
     cleanUpSharedFiled();
-    log.debug("Session clean up. Socket closed: {}", socket.isClosed());
+    log.debug("Session clean up. Socket closed: {}", transport.isClosed());
   }
 
   private void cleanUpSharedFiled() {
     if (getUser() != null) {
-      sharedFileService.deleteAllByUserId(getUser().getId());
+      shareIndex.removeAll(this);
+      sharedFileWriter.deleteAllByUserId(getUser().getId());
     }
   }
 
@@ -148,6 +197,7 @@ public class Session implements Runnable, MessageContext {
   @Override
   public void setUser(User user) {
     getUserState().setUser(user);
+    sessionManager.indexSession(this);
   }
 
   /** Returns how long this session has been connected, in secs */
@@ -210,6 +260,11 @@ public class Session implements Runnable, MessageContext {
     return getUserState().getShares();
   }
 
+  @Override
+  public int getShareCount() {
+    return getUserState().getShareCount();
+  }
+
   @Override
   public List<SharedFile> search(SearchParameters params) {
     return getUserState().search(params);
@@ -220,43 +275,18 @@ public class Session implements Runnable, MessageContext {
     return getUserState().search(params);
   }
 
-  public void startStatusUpdateThread() {
-    if (statusUpdateExecutor == null) {
-      statusUpdateExecutor = Executors.newSingleThreadScheduledExecutor();
-      MessageHandler statusHandler =
-          messageHandlerFactory.getHandlerForType(MessageTypes.SERVER_STATS);
-
-      statusUpdateExecutor.scheduleAtFixedRate(
-          () -> {
-            try {
-              OutboundMessageQueue out = getOutboundMessageQueue();
-              if (out == null || out.isInvalid()) {
-                stopStatusUpdateThread();
-              } else {
-                statusHandler.handleMessage(null, this);
-              }
-            } catch (Exception e) {
-              log.error("Error in status update thread", e);
-            }
-          },
-          60,
-          60,
-          TimeUnit.SECONDS);
+  @Override
+  public synchronized void startStatusUpdates() {
+    if (statusUpdateSlot < 0) {
+      statusUpdateSlot = statusUpdateWheel.add(this);
     }
   }
 
-  public void stopStatusUpdateThread() {
-    if (statusUpdateExecutor != null) {
-      statusUpdateExecutor.shutdown();
-      try {
-        if (!statusUpdateExecutor.awaitTermination(5, TimeUnit.SECONDS)) {
-          statusUpdateExecutor.shutdownNow();
-        }
-      } catch (InterruptedException e) {
-        statusUpdateExecutor.shutdownNow();
-        Thread.currentThread().interrupt();
-      }
-      statusUpdateExecutor = null;
+  @Override
+  public synchronized void stopStatusUpdates() {
+    if (statusUpdateSlot >= 0) {
+      statusUpdateWheel.remove(this, statusUpdateSlot);
+      statusUpdateSlot = -1;
     }
   }
 
@@ -276,7 +306,7 @@ public class Session implements Runnable, MessageContext {
     }
     try {
       // force the socket closed.
-      socket.close();
+      transport.close();
     } catch (Exception e) {
       // ignore
     }
@@ -8,21 +8,31 @@ import com.deriklima.retronap.model.SharedFile;
 import com.deriklima.retronap.search.ShareProvider;
 import java.util.Collection;
 import java.util.List;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Component;
 
+/**
+ * Keeps track of the connected sessions. Besides the set of all sessions, logged-in sessions are
+ * indexed by nickname and user id, so looking up the target of a message doesn't scan everyone.
+ */
 @Component
 public class SessionManager implements ShareProvider {
 
-  private final List<Session> activeSessions = new CopyOnWriteArrayList<>();
+  private final Set<Session> activeSessions = ConcurrentHashMap.newKeySet();
+  private final Map<String, Session> sessionsByNickname = new ConcurrentHashMap<>();
+  private final Map<UUID, Session> sessionsByUserId = new ConcurrentHashMap<>();
 
   @EventListener
   public void handleSessionEvent(SessionEvent se) {
     switch (se.getType()) {
       case SessionEvent.REGISTER -> addActiveSession((Session) se.getSession());
+      case SessionEvent.SIGNON -> indexSession((Session) se.getSession());
       case SessionEvent.TERMINATE -> removeActiveSession((Session) se.getSession());
     }
   }
@@ -33,13 +43,40 @@ public class SessionManager implements ShareProvider {
 
   public void removeActiveSession(Session s) {
     activeSessions.remove(s);
+    String nickname = s.getNickname();
+    if (nickname != null) {
+      sessionsByNickname.remove(nickname, s);
+    }
+    UUID userId = s.getUserId();
+    if (userId != null) {
+      sessionsByUserId.remove(userId, s);
+    }
+  }
+
+  /**
+   * Makes the session findable by its user's nickname and id. Called when the user is set and
+   * again on sign-on, by which time a freshly registered user has been assigned an id.
+   */
+  void indexSession(Session s) {
+    if (!activeSessions.contains(s)) {
+      return; // already terminated
+    }
+    String nickname = s.getNickname();
+    if (nickname != null) {
+      sessionsByNickname.put(nickname, s);
+    }
+    UUID userId = s.getUserId();
+    if (userId != null) {
+      sessionsByUserId.put(userId, s);
+    }
   }
 
   public MessageContext searchForSession(String nickname) {
-    return activeSessions.stream()
-        .filter(s -> s != null && nickname.equals(s.getNickname()))
-        .findFirst()
-        .orElse(null);
+    return nickname != null ? sessionsByNickname.get(nickname) : null;
+  }
+
+  public MessageContext searchForSessionByUserId(UUID userId) {
+    return userId != null ? sessionsByUserId.get(userId) : null;
   }
 
   public UserState searchForUserState(String nickname) {
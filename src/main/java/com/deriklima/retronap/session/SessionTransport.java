@@ -0,0 +1,22 @@
+package com.deriklima.retronap.session;
+
+import com.deriklima.retronap.message.FrameSink;
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+
+/**
+ * The network connection underneath a {@link Session}. Lets the same session logic run on top of a
+ * blocking socket or a selector-driven channel. How frames come in differs: a {@link
+ * SocketTransport} is read by {@link Session#run}, a selector-driven transport pushes decoded
+ * frames into {@link Session#dispatch}.
+ */
+interface SessionTransport extends Closeable {
+
+  InetAddress getInetAddress();
+
+  /** Sink the session's outbound queue writes to; called once per session. */
+  FrameSink openFrameSink() throws IOException;
+
+  boolean isClosed();
+}
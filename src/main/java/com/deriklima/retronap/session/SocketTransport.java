@@ -0,0 +1,37 @@
+package com.deriklima.retronap.session;
+
+import com.deriklima.retronap.message.FrameSink;
+import com.deriklima.retronap.message.StreamFrameSink;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+
+/** {@link SessionTransport} over a classic blocking {@link Socket}. */
+record SocketTransport(Socket socket) implements SessionTransport {
+
+  @Override
+  public InetAddress getInetAddress() {
+    return socket.getInetAddress();
+  }
+
+  /** Stream the session reads frames from on its own thread. */
+  public InputStream getInputStream() throws IOException {
+    return socket.getInputStream();
+  }
+
+  @Override
+  public FrameSink openFrameSink() throws IOException {
+    return new StreamFrameSink(socket.getOutputStream());
+  }
+
+  @Override
+  public boolean isClosed() {
+    return socket.isClosed();
+  }
+
+  @Override
+  public void close() throws IOException {
+    socket.close();
+  }
+}
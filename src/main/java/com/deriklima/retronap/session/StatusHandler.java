@@ -15,28 +15,29 @@ public class StatusHandler extends MessageHandler {
   public StatusHandler(StatisticsMaintainer statisticsMaintainer) {
     this.statisticsMaintainer = statisticsMaintainer;
     addPreConditionChecker(new UserLoggedInChecker());
-    // no checker should be here for validating messages:
-    // this handler is used by a separate thread to send occasional
-    // status update messages, and spoofs the message (null).
   }
 
   public void processMessage(Message m, MessageContext session) {
-    StringBuilder buf = new StringBuilder(15);
-    buf.append(statisticsMaintainer.getUserCount());
-    buf.append(" ");
-    buf.append(statisticsMaintainer.getFileCount());
-    buf.append(" ");
-    buf.append(statisticsMaintainer.getTotalLibrarySizeInGigs());
-
     OutboundMessageQueue out = session.getOutboundMessageQueue();
     if (out != null) {
       try {
-        out.queueMessage(new Message(MessageTypes.SERVER_STATS, buf.toString()));
+        out.queueMessage(createStatsMessage(statisticsMaintainer));
       } catch (InvalidatedQueueException iqe) {
       }
     }
   }
 
+  /** The stats reply; also pushed periodically by the {@link StatusUpdateWheel}. */
+  static Message createStatsMessage(StatisticsMaintainer statisticsMaintainer) {
+    StringBuilder buf = new StringBuilder(15);
+    buf.append(statisticsMaintainer.getUserCount());
+    buf.append(" ");
+    buf.append(statisticsMaintainer.getFileCount());
+    buf.append(" ");
+    buf.append(statisticsMaintainer.getTotalLibrarySizeInGigs());
+    return Message.preEncoded(MessageTypes.SERVER_STATS, buf.toString());
+  }
+
   @Override
   public List<Integer> getHandledMessageTypes() {
     return List.of(MessageTypes.SERVER_STATS);
@@ -0,0 +1,92 @@
+package com.deriklima.retronap.session;
+
+import com.deriklima.retronap.message.InvalidatedQueueException;
+import com.deriklima.retronap.message.Message;
+import com.deriklima.retronap.message.OutboundMessageQueue;
+import com.deriklima.retronap.statistics.StatisticsMaintainer;
+import jakarta.annotation.PreDestroy;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+/**
+ * Pushes the periodic {@code SERVER_STATS} message to every logged-in session from one thread. The
+ * sessions are spread over a hashed wheel with one slot per second of the update interval; each
+ * tick builds the stats message once and queues that same message to the sessions of one slot.
+ * Sessions land in a random slot, so a burst of logins doesn't turn into a burst of pushes.
+ */
+@Slf4j
+@Component
+public class StatusUpdateWheel {
+  private static final int UPDATE_INTERVAL_SECONDS = 60;
+
+  private final StatisticsMaintainer statisticsMaintainer;
+  private final Set<Session>[] slots;
+  private final ScheduledExecutorService ticker =
+      Executors.newSingleThreadScheduledExecutor(
+          Thread.ofPlatform().name("status-update-wheel").daemon().factory());
+  private int cursor;
+
+  @SuppressWarnings("unchecked")
+  public StatusUpdateWheel(StatisticsMaintainer statisticsMaintainer) {
+    this.statisticsMaintainer = statisticsMaintainer;
+    this.slots = new Set[UPDATE_INTERVAL_SECONDS];
+    for (int i = 0; i < slots.length; i++) {
+      slots[i] = ConcurrentHashMap.newKeySet();
+    }
+    ticker.scheduleAtFixedRate(this::tick, 1, 1, TimeUnit.SECONDS);
+  }
+
+  /** Adds the session to a random slot and returns that slot, for {@link #remove}. */
+  int add(Session session) {
+    int slot = ThreadLocalRandom.current().nextInt(slots.length);
+    slots[slot].add(session);
+    return slot;
+  }
+
+  void remove(Session session, int slot) {
+    slots[slot].remove(session);
+  }
+
+  private void tick() {
+    cursor = (cursor + 1) % slots.length;
+    Set<Session> due = slots[cursor];
+    if (due.isEmpty()) {
+      return;
+    }
+    try {
+      Message stats = StatusHandler.createStatsMessage(statisticsMaintainer);
+      for (Session session : due) {
+        push(session, stats, due);
+      }
+    } catch (RuntimeException e) {
+      log.error("Error pushing status updates", e);
+    }
+  }
+
+  private static void push(Session session, Message stats, Set<Session> slot) {
+    OutboundMessageQueue out = session.getOutboundMessageQueue();
+    if (out == null || out.isInvalid()) {
+      slot.remove(session);
+      return;
+    }
+    if (!session.isLoggedIn()) {
+      return;
+    }
+    try {
+      out.queueMessage(stats);
+    } catch (InvalidatedQueueException e) {
+      slot.remove(session);
+    }
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    ticker.shutdownNow();
+  }
+}
@@ -13,6 +13,7 @@ import com.deriklima.retronap.statistics.IncreaseTotalLibSizeEvent;
 import com.deriklima.retronap.statistics.IncreaseUserCountEvent;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 import lombok.Getter;
 import lombok.RequiredArgsConstructor;
 import org.springframework.context.ApplicationEventPublisher;
@@ -25,6 +26,10 @@ import org.springframework.stereotype.Component;
 @RequiredArgsConstructor
 public class UserState {
   private final List<SharedFile> shares = new ArrayList<>();
+
+  /** The size of {@link #shares}, readable from other sessions' threads. */
+  private final AtomicInteger shareCount = new AtomicInteger();
+
   private final ApplicationEventPublisher publisher;
   private final int bytesPerMeg = 1000000;
   @Getter private User user;
@@ -36,6 +41,7 @@ public class UserState {
 
   public void addShare(SharedFile s) {
     shares.add(s);
+    shareCount.incrementAndGet();
     publisher.publishEvent(new IncreaseFileCountEvent(1));
     publisher.publishEvent(new IncreaseTotalLibSizeEvent(s.getSize() / bytesPerMeg));
   }
@@ -44,6 +50,7 @@ public class UserState {
     for (SharedFile s : shares) {
       if (filename.equals(s.getAbsolutePath())) {
         shares.remove(s);
+        shareCount.decrementAndGet();
         publisher.publishEvent(new DecreaseFileCountEvent(1));
         publisher.publishEvent(new DecreaseTotalLibSizeEvent(s.getSize() / bytesPerMeg));
         return;
@@ -60,6 +67,10 @@ public class UserState {
     return null;
   }
 
+  public int getShareCount() {
+    return shareCount.get();
+  }
+
   public SharedFile[] getShares() {
     if (shares.isEmpty()) return null;
     return shares.toArray(new SharedFile[0]);
@@ -117,6 +128,7 @@ public class UserState {
   }
 
   public void removeStatistics() {
+    shareCount.set(0);
     int fileCount = shares.size();
     int totalSize = 0;
     for (SharedFile sr : shares) {
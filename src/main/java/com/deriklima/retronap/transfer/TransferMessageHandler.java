@@ -7,7 +7,7 @@ import com.deriklima.retronap.message.MessageTypes;
 import com.deriklima.retronap.message.UserLoggedInChecker;
 import com.deriklima.retronap.message.ValidMessageChecker;
 import com.deriklima.retronap.model.User;
-import com.deriklima.retronap.user.UserService;
+import com.deriklima.retronap.user.TransferCounters;
 import java.util.List;
 import org.springframework.stereotype.Component;
 
@@ -15,10 +15,10 @@ import org.springframework.stereotype.Component;
 @Component
 public class TransferMessageHandler extends MessageHandler {
 
-  private final UserService userService;
+  private final TransferCounters transferCounters;
 
-  public TransferMessageHandler(UserService userService) {
-    this.userService = userService;
+  public TransferMessageHandler(TransferCounters transferCounters) {
+    this.transferCounters = transferCounters;
     addPreConditionChecker(new UserLoggedInChecker());
     addPreConditionChecker(new ValidMessageChecker());
   }
@@ -29,22 +29,22 @@ public class TransferMessageHandler extends MessageHandler {
     switch (m.getType()) {
       case MessageTypes.CLIENT_DOWNLOAD_NOTIFICATION:
         {
-          userService.incrementDownloadCount(user.getId());
+          transferCounters.incrementDownloads(user);
           break;
         }
       case MessageTypes.CLIENT_DOWNLOAD_COMPLETE_NOTIFICATION:
         {
-          userService.decrementDownloadCount(user.getId());
+          transferCounters.decrementDownloads(user);
           break;
         }
       case MessageTypes.CLIENT_UPLOAD_NOTIFICATION:
         {
-          userService.incrementUploadCount(user.getId());
+          transferCounters.incrementUploads(user);
           break;
         }
       case MessageTypes.CLIENT_UPLOAD_COMPLETE_NOTIFICATION:
         {
-          userService.decrementUploadCount(user.getId());
+          transferCounters.decrementUploads(user);
           break;
         }
     }
@@ -22,17 +22,20 @@ public class AdminActionHandler extends MessageHandler {
   private final UserPersistenceStore userPersistenceStore;
   private final SessionManager sessionManager;
   private final PasswordEncoder passwordEncoder;
+  private final VerificationCache verificationCache;
 
   public AdminActionHandler(
       final UserPersistenceStore userPersistenceStore,
       final SessionManager sessionManager,
-      PasswordEncoder passwordEncoder) {
+      PasswordEncoder passwordEncoder,
+      VerificationCache verificationCache) {
     this.userPersistenceStore = userPersistenceStore;
     this.sessionManager = sessionManager;
     addPreConditionChecker(new UserLoggedInChecker());
     addPreConditionChecker(new ValidMessageChecker());
     addPreConditionChecker(new LevelAtLeastAdminChecker());
     this.passwordEncoder = passwordEncoder;
+    this.verificationCache = verificationCache;
   }
 
   protected void processMessage(Message m, MessageContext session) {
@@ -79,6 +82,7 @@ public class AdminActionHandler extends MessageHandler {
         if (u != null) {
           u.setPassword(passwordEncoder.encode(newPassword));
           userPersistenceStore.save(u);
+          verificationCache.invalidate(u.getNickname());
         }
       }
       case MessageTypes.CLIENT_ADMIN_NUKE -> {
@@ -92,6 +96,7 @@ public class AdminActionHandler extends MessageHandler {
         User u = userPersistenceStore.findByNickname(user);
         if (u != null) {
           userPersistenceStore.delete(u.getId());
+          verificationCache.invalidate(u.getNickname());
         }
       }
       case MessageTypes.CLIENT_ADMIN_GLOBAL_MESSAGE -> {
@@ -20,6 +20,7 @@ public class AltLoginHandler extends MessageHandler {
   private final UserPersistenceStore userPersistenceStore;
   private final MessageOfTheDayHandler messageOfTheDayHandler;
   private final PasswordEncoder passwordEncoder;
+  private final VerificationCache verificationCache;
 
   @Setter @Getter
   private Message persistenceError =
@@ -32,10 +33,12 @@ public class AltLoginHandler extends MessageHandler {
   public AltLoginHandler(
       UserPersistenceStore userPersistenceStore,
       MessageOfTheDayHandler messageOfTheDayHandler,
-      PasswordEncoder passwordEncoder) {
+      PasswordEncoder passwordEncoder,
+      VerificationCache verificationCache) {
     this.userPersistenceStore = userPersistenceStore;
     this.messageOfTheDayHandler = messageOfTheDayHandler;
     this.passwordEncoder = passwordEncoder;
+    this.verificationCache = verificationCache;
     addPreConditionChecker(new ValidMessageChecker());
   }
 
@@ -43,9 +46,9 @@ public class AltLoginHandler extends MessageHandler {
     // <nick> <pass> <port> \"<client-info>\" <linkspeed> <email-address>
     String nickname = m.getDataString(0);
     String password = m.getDataString(1);
-    int port = Integer.parseInt(m.getDataString(2));
+    int port = m.getInt(2);
     String clientInfo = m.getDataString(3);
-    int linkSpeed = Integer.parseInt(m.getDataString(4));
+    int linkSpeed = m.getInt(4);
     String email = m.getDataString(5);
 
     User u = new User();
@@ -64,6 +67,8 @@ public class AltLoginHandler extends MessageHandler {
 
     u.setIpAddress(userState.getIPAddress());
     userPersistenceStore.save(u);
+    // the client logs in with the same password next, no need to hash it again then
+    verificationCache.put(nickname, password, u.getPassword());
 
     OutboundMessageQueue queue = session.getOutboundMessageQueue();
 
@@ -75,7 +80,7 @@ public class AltLoginHandler extends MessageHandler {
     // send motd
     messageOfTheDayHandler.handleMessage(m, session);
 
-    session.startStatusUpdateThread();
+    session.startStatusUpdates();
   }
 
   @Override
@@ -13,9 +13,11 @@ import org.springframework.stereotype.Component;
 @Component
 public class BanHandler extends MessageHandler {
   private final Banlist banlist;
+  private final VerificationCache verificationCache;
 
-  public BanHandler(Banlist banlist) {
+  public BanHandler(Banlist banlist, VerificationCache verificationCache) {
     this.banlist = banlist;
+    this.verificationCache = verificationCache;
     addPreConditionChecker(new UserLoggedInChecker());
     addPreConditionChecker(new ValidMessageChecker());
     addPreConditionChecker(new LevelAtLeastAdminChecker());
@@ -31,6 +33,7 @@ public class BanHandler extends MessageHandler {
             banlist.addBannedIP(ip, session.getUser().getNickname(), "No reason given.");
           } else {
             banlist.addBannedNick(nickOrIP);
+            verificationCache.invalidate(nickOrIP);
           }
           break;
         }
@@ -0,0 +1,245 @@
+package com.deriklima.retronap.user;
+
+import com.deriklima.retronap.config.RetroNapConfig;
+import com.deriklima.retronap.model.User;
+import com.deriklima.retronap.model.UserInfo;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import org.springframework.context.annotation.Primary;
+import org.springframework.stereotype.Component;
+
+/**
+ * Keeps recently looked up users in memory in front of {@link UserService}, so logins, whois,
+ * hotlist and registration checks don't each cost a database round-trip. Nicknames that turned out
+ * not to be registered are remembered too, for a shorter while, since registration checks ask for
+ * exactly those.
+ *
+ * <p>Every lookup returns its own detached {@link User}, as the database would: the cache keeps a
+ * private copy and hands out copies of it, so sessions and handlers that change their user - a
+ * login setting its port, an admin setting a level - never see each other's half-applied changes.
+ *
+ * <p>{@link #save} and {@link #delete} drop the user from the cache, so the next lookup reads the
+ * row as written; this includes admins changing a level or password. Writers that update columns
+ * around this store - {@link LoginUpdateWriter} and {@link TransferCounters} - call {@link
+ * #invalidate} once they have written, so a later full save never starts from a stale copy.
+ *
+ * <p>Both caches are bounded by {@code retronap.users.cache-size}; beyond that the oldest entries
+ * are evicted.
+ */
+@Primary
+@Component
+public class CachingUserPersistenceStore implements UserPersistenceStore {
+
+  /** A cached value; a null user stands for a nickname that isn't registered. */
+  private record Entry<T>(T value, long expiresAt) {
+    boolean isExpired() {
+      return expiresAt - System.nanoTime() <= 0;
+    }
+  }
+
+  private final UserService delegate;
+  private final long ttlNanos;
+  private final long negativeTtlNanos;
+  private final Map<String, Entry<User>> usersByNickname;
+  private final Map<UUID, Entry<String>> nicknamesById;
+
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder negativeHits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder evictions = new LongAdder();
+
+  public CachingUserPersistenceStore(UserService delegate, RetroNapConfig config) {
+    this.delegate = delegate;
+    this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(config.getUsers().getCacheTtlMs(), 0));
+    this.negativeTtlNanos =
+        TimeUnit.MILLISECONDS.toNanos(Math.max(config.getUsers().getNegativeCacheTtlMs(), 0));
+    int maxSize = Math.max(config.getUsers().getCacheSize(), 1);
+    this.usersByNickname = boundedMap(maxSize);
+    this.nicknamesById = boundedMap(maxSize);
+  }
+
+  /** A map in insertion order that drops its eldest entry once it holds more than maxSize. */
+  private <K, V> Map<K, V> boundedMap(int maxSize) {
+    return new LinkedHashMap<>() {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+        if (size() > maxSize) {
+          evictions.increment();
+          return true;
+        }
+        return false;
+      }
+    };
+  }
+
+  @Override
+  public User findByNickname(String nickname) {
+    Entry<User> entry = get(usersByNickname, nickname);
+    if (entry != null) {
+      if (entry.value() == null) {
+        negativeHits.increment();
+        throw new UserNotFoundException("User not found: " + nickname);
+      }
+      hits.increment();
+      return copyOf(entry.value());
+    }
+    misses.increment();
+    User user;
+    try {
+      user = delegate.findByNickname(nickname);
+    } catch (UserNotFoundException e) {
+      if (negativeTtlNanos > 0) {
+        put(usersByNickname, nickname, new Entry<>(null, System.nanoTime() + negativeTtlNanos));
+      }
+      throw e;
+    }
+    remember(user);
+    return user;
+  }
+
+  @Override
+  public Optional<String> findNicknameById(UUID id) {
+    Entry<String> entry = get(nicknamesById, id);
+    if (entry != null) {
+      hits.increment();
+      return Optional.of(entry.value());
+    }
+    misses.increment();
+    Optional<String> nickname = delegate.findNicknameById(id);
+    nickname.ifPresent(n -> put(nicknamesById, id, new Entry<>(n, System.nanoTime() + ttlNanos)));
+    return nickname;
+  }
+
+  @Override
+  public Optional<User> findById(UUID id) {
+    return delegate.findById(id);
+  }
+
+  @Override
+  public User save(User user) {
+    // also drops a "not registered" entry, the nickname may be the one being registered
+    invalidate(user.getNickname());
+    try {
+      return delegate.save(user);
+    } finally {
+      // a lookup between the two may have cached the row as it was before the save
+      invalidate(user.getNickname());
+    }
+  }
+
+  @Override
+  public void delete(UUID id) {
+    delegate.delete(id);
+    synchronized (nicknamesById) {
+      nicknamesById.remove(id);
+    }
+    synchronized (usersByNickname) {
+      usersByNickname.values().removeIf(e -> e.value() != null && id.equals(e.value().getId()));
+    }
+  }
+
+  @Override
+  public UserInfo saveUserInfo(UserInfo userInfo, String nickname) {
+    return delegate.saveUserInfo(userInfo, nickname);
+  }
+
+  /** Forgets what is cached for a nickname, for changes made around this store. */
+  public void invalidate(String nickname) {
+    if (nickname != null) {
+      synchronized (usersByNickname) {
+        usersByNickname.remove(nickname);
+      }
+    }
+  }
+
+  private void remember(User user) {
+    if (ttlNanos <= 0 || user == null || user.getNickname() == null) {
+      return;
+    }
+    long expiresAt = System.nanoTime() + ttlNanos;
+    put(usersByNickname, user.getNickname(), new Entry<>(copyOf(user), expiresAt));
+    if (user.getId() != null) {
+      put(nicknamesById, user.getId(), new Entry<>(user.getNickname(), expiresAt));
+    }
+  }
+
+  private static User copyOf(User user) {
+    User copy =
+        new User(
+            user.getNickname(),
+            user.getPassword(),
+            user.getLevel(),
+            user.getLinkSpeed(),
+            user.getClientInfo(),
+            user.getEmail(),
+            user.getCreatedLegacy(),
+            user.getLastSeen());
+    copy.setId(user.getId());
+    copy.setCreated(user.getCreated());
+    copy.setLastModified(user.getLastModified());
+    copy.setVersion(user.getVersion());
+    copy.setIpAddress(user.getIpAddress() != null ? user.getIpAddress().clone() : null);
+    copy.setDownloads(user.getDownloads());
+    copy.setUploads(user.getUploads());
+    copy.setDataPort(user.getDataPort());
+    return copy;
+  }
+
+  private static <K, V> Entry<V> get(Map<K, Entry<V>> cache, K key) {
+    if (key == null) {
+      return null;
+    }
+    synchronized (cache) {
+      Entry<V> entry = cache.get(key);
+      if (entry != null && entry.isExpired()) {
+        cache.remove(key);
+        return null;
+      }
+      return entry;
+    }
+  }
+
+  private static <K, V> void put(Map<K, Entry<V>> cache, K key, Entry<V> entry) {
+    synchronized (cache) {
+      // re-inserted rather than replaced, so it moves to the young end
+      cache.remove(key);
+      cache.put(key, entry);
+    }
+  }
+
+  /** Lookups answered with a cached user or nickname. */
+  public long getHits() {
+    return hits.sum();
+  }
+
+  /** Lookups answered with a cached "not registered". */
+  public long getNegativeHits() {
+    return negativeHits.sum();
+  }
+
+  /** Lookups that went to the database. */
+  public long getMisses() {
+    return misses.sum();
+  }
+
+  /** Entries dropped to make room, not counting expired or invalidated ones. */
+  public long getEvictions() {
+    return evictions.sum();
+  }
+
+  public double getHitRate() {
+    long hits = getHits() + getNegativeHits();
+    long total = hits + getMisses();
+    return total == 0 ? 0 : (double) hits / total;
+  }
+
+  public int getSize() {
+    synchronized (usersByNickname) {
+      return usersByNickname.size();
+    }
+  }
+}
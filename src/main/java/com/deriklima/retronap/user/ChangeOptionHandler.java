@@ -19,11 +19,15 @@ public class ChangeOptionHandler extends MessageHandler {
 
   private final PasswordEncoder passwordEncoder;
   private final UserPersistenceStore userPersistenceStore;
+  private final VerificationCache verificationCache;
 
   public ChangeOptionHandler(
-      PasswordEncoder passwordEncoder, UserPersistenceStore userPersistenceStore) {
+      PasswordEncoder passwordEncoder,
+      UserPersistenceStore userPersistenceStore,
+      VerificationCache verificationCache) {
     this.passwordEncoder = passwordEncoder;
     this.userPersistenceStore = userPersistenceStore;
+    this.verificationCache = verificationCache;
     addPreConditionChecker(new UserLoggedInChecker());
     addPreConditionChecker(new ValidMessageChecker());
   }
@@ -43,6 +47,7 @@ public class ChangeOptionHandler extends MessageHandler {
           String password = m.getDataString(0);
           user.setPassword(passwordEncoder.encode(password));
           userPersistenceStore.save(user);
+          verificationCache.invalidate(user.getNickname());
           break;
         }
       case MessageTypes.CLIENT_CHANGE_EMAIL:
@@ -8,13 +8,12 @@ import com.deriklima.retronap.message.MessageTypes;
 import com.deriklima.retronap.model.User;
 import java.util.List;
 import lombok.RequiredArgsConstructor;
-import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.stereotype.Component;
 
 @Component
 @RequiredArgsConstructor
 public class CheckPassHandler extends MessageHandler {
-  private final PasswordEncoder passwordEncoder;
+  private final CredentialVerifier credentialVerifier;
   private final UserPersistenceStore userPersistenceStore;
 
   // TODO: Implement checkers
@@ -40,7 +39,8 @@ public class CheckPassHandler extends MessageHandler {
       return;
     }
     // Check if password matches
-    if (user.getPassword() != null && passwordEncoder.matches(password, user.getPassword())) {
+    CredentialVerifier.Result verification = credentialVerifier.verify(user, password);
+    if (verification == CredentialVerifier.Result.MATCH) {
       MessageContext userState = session;
       userState.setLoggedIn();
       userState.setUser(user);
@@ -61,7 +61,12 @@ public class CheckPassHandler extends MessageHandler {
         //   server sends message 0."
         session
             .getOutboundMessageQueue()
-            .queueMessage(new Message(MessageTypes.SERVER_ERROR, "Incorrect Password."));
+            .queueMessage(
+                new Message(
+                    MessageTypes.SERVER_ERROR,
+                    verification == CredentialVerifier.Result.BUSY
+                        ? "Server is busy, please try again later."
+                        : "Incorrect Password."));
       } catch (InvalidatedQueueException e) {
         throw new RuntimeException(e);
       }
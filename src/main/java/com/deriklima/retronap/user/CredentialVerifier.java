@@ -0,0 +1,94 @@
+package com.deriklima.retronap.user;
+
+import com.deriklima.retronap.config.RetroNapConfig;
+import com.deriklima.retronap.model.User;
+import jakarta.annotation.PreDestroy;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.stereotype.Component;
+
+/**
+ * Checks login passwords on a fixed pool of threads. Hashing is deliberately slow, and when every
+ * client reconnects at once, e.g. after a restart, running it on the sessions' own threads would
+ * let thousands of hashes compete for the CPU. Here at most one per verifier thread runs at a time,
+ * a bounded number wait for their turn, and logins beyond that are turned away straight away.
+ * Successful checks may be remembered for a while by the {@link VerificationCache}.
+ */
+@Slf4j
+@Component
+class CredentialVerifier {
+
+  enum Result {
+    MATCH,
+    MISMATCH,
+    /** Too many logins are waiting to be verified already. */
+    BUSY
+  }
+
+  private final PasswordEncoder passwordEncoder;
+  private final VerificationCache verificationCache;
+  private final ThreadPoolExecutor verifiers;
+
+  CredentialVerifier(
+      PasswordEncoder passwordEncoder,
+      VerificationCache verificationCache,
+      RetroNapConfig config) {
+    this.passwordEncoder = passwordEncoder;
+    this.verificationCache = verificationCache;
+    int threads = config.getLogin().getVerifierThreads();
+    if (threads <= 0) {
+      threads = Runtime.getRuntime().availableProcessors();
+    }
+    this.verifiers =
+        new ThreadPoolExecutor(
+            threads,
+            threads,
+            0,
+            TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(Math.max(config.getLogin().getMaxPendingVerifications(), 1)),
+            Thread.ofPlatform().name("credential-verifier-", 0).daemon().factory());
+  }
+
+  /** Checks the password of a user, waiting for a verifier thread if needed. */
+  Result verify(User user, String password) {
+    String encodedPassword = user.getPassword();
+    if (password == null || encodedPassword == null) {
+      return Result.MISMATCH;
+    }
+    if (verificationCache.contains(user.getNickname(), password, encodedPassword)) {
+      return Result.MATCH;
+    }
+    Future<Boolean> matches;
+    try {
+      matches = verifiers.submit(() -> passwordEncoder.matches(password, encodedPassword));
+    } catch (RejectedExecutionException e) {
+      log.warn("Too many logins waiting to be verified, turning one away");
+      return Result.BUSY;
+    }
+    try {
+      if (!matches.get()) {
+        return Result.MISMATCH;
+      }
+      verificationCache.put(user.getNickname(), password, encodedPassword);
+      return Result.MATCH;
+    } catch (InterruptedException e) {
+      matches.cancel(true);
+      Thread.currentThread().interrupt();
+      return Result.MISMATCH;
+    } catch (ExecutionException e) {
+      log.error("Error verifying password", e.getCause());
+      return Result.MISMATCH;
+    }
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    verifiers.shutdownNow();
+  }
+}
@@ -8,7 +8,6 @@ import java.util.List;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.ApplicationEventPublisher;
-import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.stereotype.Component;
 
 /** Handles login messages */
@@ -20,26 +19,34 @@ import org.springframework.stereotype.Component;
 @Slf4j
 public class LoginHandler extends MessageHandler {
 
+  /** Length of the client_info column. */
+  private static final int MAX_CLIENT_INFO_LENGTH = 25;
+
   private final ApplicationEventPublisher publisher;
 
   private final Message loginError =
       new Message(MessageTypes.SERVER_ERROR, "Login error.(no account or bad password)");
   private final Message banError =
       new Message(MessageTypes.SERVER_ERROR, "You have been banned from using this server.");
+  private final Message busyError =
+      new Message(MessageTypes.SERVER_ERROR, "Server is busy, please try again later.");
 
-  private final PasswordEncoder passwordEncoder;
+  private final CredentialVerifier credentialVerifier;
+  private final LoginUpdateWriter loginUpdateWriter;
   private final UserPersistenceStore userPersistenceStore;
   private final Banlist banlist;
   private final MessageOfTheDayHandler messageOfTheDayHandler;
 
   public LoginHandler(
       ApplicationEventPublisher publisher,
-      PasswordEncoder passwordEncoder,
+      CredentialVerifier credentialVerifier,
+      LoginUpdateWriter loginUpdateWriter,
       UserPersistenceStore userPersistenceStore,
       Banlist banlist,
       MessageOfTheDayHandler messageOfTheDayHandler) {
     this.publisher = publisher;
-    this.passwordEncoder = passwordEncoder;
+    this.credentialVerifier = credentialVerifier;
+    this.loginUpdateWriter = loginUpdateWriter;
     this.userPersistenceStore = userPersistenceStore;
     this.banlist = banlist;
     this.messageOfTheDayHandler = messageOfTheDayHandler;
@@ -55,6 +62,7 @@ public class LoginHandler extends MessageHandler {
     String nickname = m.getDataString(0);
 
     boolean banned = false;
+    boolean busy = false;
     boolean loginSuccess = false;
 
     User u = null;
@@ -67,28 +75,36 @@ public class LoginHandler extends MessageHandler {
     String email = "";
     if (u != null) {
       String password = m.getDataString(1);
-      if (passwordEncoder.matches(password, u.getPassword())) {
+      CredentialVerifier.Result verification = credentialVerifier.verify(u, password);
+      if (verification == CredentialVerifier.Result.MATCH) {
         if ((!banlist.isBannedNick(u.getNickname()))
             && (!banlist.isBannedIP(Util.byteArrayToLongIPAddress(session.getIPAddress())))) {
           String clientInfo = m.getDataString(3);
-          int linkType = Integer.parseInt(m.getDataString(4));
-          int dataPort = Integer.parseInt(m.getDataString(2));
+          if (clientInfo != null && clientInfo.length() > MAX_CLIENT_INFO_LENGTH) {
+            clientInfo = clientInfo.substring(0, MAX_CLIENT_INFO_LENGTH);
+          }
+          int linkType = m.getInt(4);
+          int dataPort = m.getInt(2);
+
+          u.setDataPort(dataPort);
+          u.setClientInfo(clientInfo);
+          u.setLinkSpeedValue(linkType);
+          u.setLastSeen(System.currentTimeMillis() / 1000);
 
           MessageContext userState = session;
           userState.setLoggedIn();
           userState.setUser(u);
           email = u.getEmail();
 
-          u.setDataPort(dataPort);
-          u.setClientInfo(clientInfo);
-          u.setLinkSpeedValue(linkType);
-          u.setLastSeen(System.currentTimeMillis() / 1000);
-          userPersistenceStore.save(u);
+          // written in the background, the ack doesn't wait for the database
+          loginUpdateWriter.queue(u);
 
           loginSuccess = true;
         } else {
           banned = true;
         }
+      } else {
+        busy = verification == CredentialVerifier.Result.BUSY;
       }
     }
 
@@ -97,12 +113,12 @@ public class LoginHandler extends MessageHandler {
 
     if (loginSuccess) {
       outMessage = new Message(MessageTypes.SERVER_LOGIN_ACK, email);
+    } else if (banned) {
+      outMessage = banError;
+    } else if (busy) {
+      outMessage = busyError;
     } else {
-      if (banned) {
-        outMessage = banError;
-      } else {
-        outMessage = loginError;
-      }
+      outMessage = loginError;
     }
 
     try {
@@ -115,7 +131,7 @@ public class LoginHandler extends MessageHandler {
       messageOfTheDayHandler.handleMessage(m, session);
 
       // start status update thread
-      session.startStatusUpdateThread();
+      session.startStatusUpdates();
 
       // notify listeners
       publisher.publishEvent(new SessionEvent(session, SessionEvent.SIGNON));
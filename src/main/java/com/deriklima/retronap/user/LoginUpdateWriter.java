@@ -0,0 +1,107 @@
+package com.deriklima.retronap.user;
+
+import com.deriklima.retronap.config.RetroNapConfig;
+import com.deriklima.retronap.model.User;
+import com.deriklima.retronap.util.WriteBehind;
+import jakarta.annotation.PreDestroy;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+/**
+ * Writes what a login changes about a user - data port, client info, link speed and last seen -
+ * in the background, so the login can be acknowledged without waiting for the database. Users are
+ * queued by id and written periodically in one JDBC batch; a user who logs in several times before
+ * a flush is written once, with the values of their latest login.
+ *
+ * <p>When a batch fails, its users are written one at a time, so one bad row only loses its own
+ * update. Only those four columns are updated, and the version is left alone: the {@link User} the
+ * session holds keeps matching its row, so later saves of it don't fail as stale.
+ */
+@Slf4j
+@Component
+class LoginUpdateWriter {
+  private static final String UPDATE_LOGIN =
+      """
+      UPDATE napster_users SET data_port = ?, client_info = ?, link_speed = ?, last_seen = ?
+      WHERE id = ?
+      """;
+
+  private final JdbcTemplate jdbcTemplate;
+  private final CachingUserPersistenceStore userCache;
+
+  /** Users with unwritten login fields; the values are read when the batch is written. */
+  private final Map<UUID, User> pending = new ConcurrentHashMap<>();
+
+  private final WriteBehind writeBehind;
+
+  LoginUpdateWriter(
+      JdbcTemplate jdbcTemplate, CachingUserPersistenceStore userCache, RetroNapConfig config) {
+    this.jdbcTemplate = jdbcTemplate;
+    this.userCache = userCache;
+    long interval = Math.max(config.getLogin().getUpdateIntervalMs(), 1);
+    this.writeBehind = new WriteBehind("login-update-writer", interval, this::writePending);
+  }
+
+  void queue(User user) {
+    if (user.getId() != null) {
+      pending.put(user.getId(), user);
+    }
+  }
+
+  void flush() {
+    writeBehind.flush();
+  }
+
+  /** Writes every queued user in one batch; logins queued meanwhile wait for the next flush. */
+  private boolean writePending() {
+    List<User> batch = new ArrayList<>(pending.size());
+    for (UUID id : pending.keySet()) {
+      User user = pending.remove(id);
+      if (user != null) {
+        batch.add(user);
+      }
+    }
+    if (batch.isEmpty()) {
+      return false;
+    }
+    try {
+      jdbcTemplate.batchUpdate(UPDATE_LOGIN, batch, batch.size(), LoginUpdateWriter::bind);
+    } catch (DataAccessException e) {
+      log.warn("Failed to persist the logins of {} users, retrying one by one", batch.size(), e);
+      for (User user : batch) {
+        try {
+          jdbcTemplate.update(UPDATE_LOGIN, ps -> bind(ps, user));
+        } catch (DataAccessException rowFailure) {
+          log.error("Failed to persist the login of {}", user.getNickname(), rowFailure);
+        }
+      }
+    }
+    // cached lookups would still answer with the port and client of the previous login
+    batch.forEach(user -> userCache.invalidate(user.getNickname()));
+    return false;
+  }
+
+  private static void bind(PreparedStatement ps, User user) throws SQLException {
+    ps.setInt(1, user.getDataPort());
+    ps.setString(2, user.getClientInfo());
+    // link_speed holds the ordinal, as mapped on User
+    ps.setShort(3, (short) user.getLinkSpeed().ordinal());
+    ps.setLong(4, user.getLastSeen());
+    ps.setObject(5, user.getId());
+  }
+
+  /** Writes the logins still queued, so last seen survives a restart. */
+  @PreDestroy
+  public void shutdown() {
+    writeBehind.shutdown();
+  }
+}
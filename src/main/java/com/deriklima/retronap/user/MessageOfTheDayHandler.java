@@ -42,7 +42,7 @@ public class MessageOfTheDayHandler extends MessageHandler {
       }
     } catch (InvalidatedQueueException iqe) {
     }
-    session.startStatusUpdateThread();
+    session.startStatusUpdates();
   }
 
   private Message[] getMotdMsg() {
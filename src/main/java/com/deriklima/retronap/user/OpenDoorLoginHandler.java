@@ -56,8 +56,8 @@ public class OpenDoorLoginHandler extends MessageHandler {
   protected void processMessage(Message m, MessageContext session) {
     String nickname = m.getDataString(0);
     String clientInfo = m.getDataString(3);
-    int linkType = Integer.parseInt(m.getDataString(4));
-    int dataPort = Integer.parseInt(m.getDataString(2));
+    int linkType = m.getInt(4);
+    int dataPort = m.getInt(2);
 
     User u = userPersistenceStore.findByNickname(nickname);
 
@@ -123,7 +123,7 @@ public class OpenDoorLoginHandler extends MessageHandler {
       handler.handleMessage(m, session);
 
       // start status update thread
-      session.startStatusUpdateThread();
+      session.startStatusUpdates();
 
       // notify listeners
       publisher.publishEvent(new SessionEvent(session, SessionEvent.SIGNON));
@@ -0,0 +1,186 @@
+package com.deriklima.retronap.user;
+
+import com.deriklima.retronap.config.RetroNapConfig;
+import com.deriklima.retronap.model.User;
+import com.deriklima.retronap.util.WriteBehind;
+import jakarta.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.ToIntFunction;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+/**
+ * The download and upload counts of users. Clients report every transfer starting and finishing,
+ * and an UPDATE per report keeps the users table busy with row locks for what is only a counter.
+ * Instead the changes are added up per user and written periodically, one batched UPDATE for all
+ * users with pending changes.
+ *
+ * <p>Once written, the changes are applied to the {@link User} they were made for, so the
+ * session's user keeps matching its row; until then {@link #getDownloads} and {@link #getUploads}
+ * add what is pending to it. When a batch fails, nothing is applied and the changes stay pending
+ * for the next flush.
+ *
+ * <p>As with the per-report UPDATEs, a decrement of a count that is already zero is dropped; here
+ * that is judged by the user's count plus what is pending for it. The UPDATE additionally never
+ * takes a column below zero, should the row hold less than the user.
+ */
+@Slf4j
+@Component
+public class TransferCounters {
+  private static final String UPDATE_COUNTS =
+      """
+      UPDATE napster_users SET downloads = GREATEST(downloads + ?, 0),
+                               uploads = GREATEST(uploads + ?, 0)
+      WHERE id = ?
+      """;
+
+  /** A user's changes as they were when a flush took them. */
+  private record Flushed(UUID userId, int downloads, int uploads) {}
+
+  /** What changed for a user since the last flush; only modified inside the map's compute. */
+  private static final class Deltas {
+    private volatile User user;
+    private volatile int downloads;
+    private volatile int uploads;
+  }
+
+  private final JdbcTemplate jdbcTemplate;
+  private final CachingUserPersistenceStore userCache;
+  private final Map<UUID, Deltas> pending = new ConcurrentHashMap<>();
+  private final WriteBehind writeBehind;
+
+  public TransferCounters(
+      JdbcTemplate jdbcTemplate, CachingUserPersistenceStore userCache, RetroNapConfig config) {
+    this.jdbcTemplate = jdbcTemplate;
+    this.userCache = userCache;
+    long interval = Math.max(config.getTransfers().getCounterFlushIntervalMs(), 1);
+    this.writeBehind = new WriteBehind("transfer-counter-writer", interval, this::writePending);
+  }
+
+  public void incrementDownloads(User user) {
+    add(user, 1, 0);
+  }
+
+  public void decrementDownloads(User user) {
+    add(user, -1, 0);
+  }
+
+  public void incrementUploads(User user) {
+    add(user, 0, 1);
+  }
+
+  public void decrementUploads(User user) {
+    add(user, 0, -1);
+  }
+
+  private void add(User user, int downloads, int uploads) {
+    if (user == null || user.getId() == null) {
+      return;
+    }
+    pending.compute(
+        user.getId(),
+        (id, deltas) -> {
+          deltas = deltas != null ? deltas : new Deltas();
+          deltas.user = user;
+          if (downloads > 0 || user.getDownloads() + deltas.downloads > 0) {
+            deltas.downloads += downloads;
+          }
+          if (uploads > 0 || user.getUploads() + deltas.uploads > 0) {
+            deltas.uploads += uploads;
+          }
+          return deltas.downloads == 0 && deltas.uploads == 0 ? null : deltas;
+        });
+  }
+
+  /** The user's download count including changes not written yet. */
+  public int getDownloads(User user) {
+    return count(user, User::getDownloads, deltas -> deltas.downloads);
+  }
+
+  /** The user's upload count including changes not written yet. */
+  public int getUploads(User user) {
+    return count(user, User::getUploads, deltas -> deltas.uploads);
+  }
+
+  /**
+   * Adds up the user's count and what is pending for it under the key's lock, as a flush moves
+   * written changes from one to the other under the same lock.
+   */
+  private int count(User user, ToIntFunction<User> written, ToIntFunction<Deltas> unwritten) {
+    if (user.getId() == null) {
+      return Math.max(written.applyAsInt(user), 0);
+    }
+    int[] count = new int[1];
+    pending.compute(
+        user.getId(),
+        (id, deltas) -> {
+          count[0] = written.applyAsInt(user) + (deltas != null ? unwritten.applyAsInt(deltas) : 0);
+          return deltas;
+        });
+    return Math.max(count[0], 0);
+  }
+
+  void flush() {
+    writeBehind.flush();
+  }
+
+  /** Writes the changes of every user in one batch; changes made meanwhile wait for the next. */
+  private boolean writePending() {
+    List<Flushed> batch = new ArrayList<>(pending.size());
+    for (UUID id : pending.keySet()) {
+      // taken under the key's lock, so a concurrent add isn't half in the batch
+      pending.computeIfPresent(
+          id,
+          (key, deltas) -> {
+            if (deltas.downloads != 0 || deltas.uploads != 0) {
+              batch.add(new Flushed(key, deltas.downloads, deltas.uploads));
+            }
+            return deltas;
+          });
+    }
+    if (batch.isEmpty()) {
+      return false;
+    }
+    try {
+      jdbcTemplate.batchUpdate(
+          UPDATE_COUNTS,
+          batch,
+          batch.size(),
+          (ps, f) -> {
+            ps.setInt(1, f.downloads());
+            ps.setInt(2, f.uploads());
+            ps.setObject(3, f.userId());
+          });
+    } catch (DataAccessException e) {
+      log.error("Failed to persist the transfer counts of {} users, will retry", batch.size(), e);
+      return false;
+    }
+    for (Flushed f : batch) {
+      pending.computeIfPresent(
+          f.userId(),
+          (key, deltas) -> {
+            User user = deltas.user;
+            user.setDownloads(Math.max(user.getDownloads() + f.downloads(), 0));
+            user.setUploads(Math.max(user.getUploads() + f.uploads(), 0));
+            deltas.downloads -= f.downloads();
+            deltas.uploads -= f.uploads();
+            // the cached copy still has the counts from before this flush
+            userCache.invalidate(user.getNickname());
+            return deltas.downloads == 0 && deltas.uploads == 0 ? null : deltas;
+          });
+    }
+    return false;
+  }
+
+  /** Writes what is still pending before the data source goes away. */
+  @PreDestroy
+  public void shutdown() {
+    writeBehind.shutdown();
+  }
+}
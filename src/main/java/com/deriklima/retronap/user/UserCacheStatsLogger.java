@@ -0,0 +1,61 @@
+package com.deriklima.retronap.user;
+
+import com.deriklima.retronap.config.RetroNapConfig;
+import jakarta.annotation.PreDestroy;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+/**
+ * Logs the hit rates and evictions of the {@link VerificationCache} and the {@link
+ * CachingUserPersistenceStore} every {@code retronap.users.stats-log-interval-ms}, for sizing their
+ * TTLs and bounds. Off when the interval is 0.
+ */
+@Slf4j
+@Component
+class UserCacheStatsLogger {
+  private final VerificationCache verificationCache;
+  private final CachingUserPersistenceStore userCache;
+  private final ScheduledExecutorService ticker =
+      Executors.newSingleThreadScheduledExecutor(
+          Thread.ofPlatform().name("user-cache-stats").daemon().factory());
+
+  UserCacheStatsLogger(
+      VerificationCache verificationCache,
+      CachingUserPersistenceStore userCache,
+      RetroNapConfig config) {
+    this.verificationCache = verificationCache;
+    this.userCache = userCache;
+    long interval = config.getUsers().getStatsLogIntervalMs();
+    if (interval > 0) {
+      ticker.scheduleAtFixedRate(this::logStats, interval, interval, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  void logStats() {
+    log.info(
+        "User cache: {} entries, {} hits, {} negative hits, {} misses, {}% hit rate, {} evictions",
+        userCache.getSize(),
+        userCache.getHits(),
+        userCache.getNegativeHits(),
+        userCache.getMisses(),
+        Math.round(userCache.getHitRate() * 100),
+        userCache.getEvictions());
+    if (verificationCache.isEnabled()) {
+      log.info(
+          "Verification cache: {} entries, {} hits, {} misses, {}% hit rate, {} evictions",
+          verificationCache.getSize(),
+          verificationCache.getHits(),
+          verificationCache.getMisses(),
+          Math.round(verificationCache.getHitRate() * 100),
+          verificationCache.getEvictions());
+    }
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    ticker.shutdownNow();
+  }
+}
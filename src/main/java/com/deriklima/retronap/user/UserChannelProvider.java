@@ -1,5 +1,7 @@
 package com.deriklima.retronap.user;
 
+import com.deriklima.retronap.message.MessageContext;
+
 public interface UserChannelProvider {
-  String[] getChannelNamesForUser(String nickname);
+  String[] getChannelNamesForUser(MessageContext user);
 }
@@ -55,24 +55,4 @@ public class UserService implements UserPersistenceStore {
     userInfo.setUser(user);
     return userInfoRepository.save(userInfo);
   }
-
-  @Transactional
-  public void incrementDownloadCount(UUID userId) {
-    userRepository.incrementDownloadCount(userId);
-  }
-
-  @Transactional
-  public void decrementDownloadCount(UUID userId) {
-    userRepository.decrementDownloadCount(userId);
-  }
-
-  @Transactional
-  public void incrementUploadCount(UUID userId) {
-    userRepository.incrementUploadCount(userId);
-  }
-
-  @Transactional
-  public void decrementUploadCount(UUID userId) {
-    userRepository.decrementUploadCount(userId);
-  }
 }
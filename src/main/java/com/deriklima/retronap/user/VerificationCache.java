@@ -0,0 +1,153 @@
+package com.deriklima.retronap.user;
+
+import com.deriklima.retronap.config.RetroNapConfig;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import org.springframework.stereotype.Component;
+
+/**
+ * Remembers recent successful password checks for a short while, so a client that keeps
+ * reconnecting doesn't pay for a full hash every time. Off unless {@code
+ * retronap.login.verification-cache-ttl-ms} is set.
+ *
+ * <p>No password is kept: an entry holds an HMAC of the nickname, the password and the encoded
+ * password, under a key generated at startup, so it only matches the same password against the
+ * same stored hash. There is at most one entry per nickname and at most {@code
+ * retronap.login.verification-cache-size} entries; beyond that the oldest ones are evicted.
+ */
+@Component
+public class VerificationCache {
+  private static final String ALGORITHM = "HmacSHA256";
+
+  private record Entry(byte[] digest, long expiresAt) {}
+
+  private final long ttlNanos;
+  private final SecretKeySpec key;
+
+  /** In insertion order, so the eldest entry is the one closest to expiring. */
+  private final Map<String, Entry> entries;
+
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder evictions = new LongAdder();
+
+  public VerificationCache(RetroNapConfig config) {
+    this.ttlNanos =
+        TimeUnit.MILLISECONDS.toNanos(Math.max(config.getLogin().getVerificationCacheTtlMs(), 0));
+    int maxSize = Math.max(config.getLogin().getVerificationCacheSize(), 1);
+    this.entries =
+        new LinkedHashMap<>() {
+          @Override
+          protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            if (size() > maxSize) {
+              evictions.increment();
+              return true;
+            }
+            return false;
+          }
+        };
+    byte[] secret = new byte[32];
+    new SecureRandom().nextBytes(secret);
+    this.key = new SecretKeySpec(secret, ALGORITHM);
+  }
+
+  boolean isEnabled() {
+    return ttlNanos > 0;
+  }
+
+  /** Whether this password was verified against this encoded password less than a TTL ago. */
+  boolean contains(String nickname, String password, String encodedPassword) {
+    if (!isEnabled()) {
+      return false;
+    }
+    Entry entry;
+    synchronized (entries) {
+      entry = entries.get(nickname);
+    }
+    if (entry != null) {
+      if (entry.expiresAt() - System.nanoTime() <= 0) {
+        synchronized (entries) {
+          entries.remove(nickname, entry);
+        }
+      } else if (MessageDigest.isEqual(
+          entry.digest(), digest(nickname, password, encodedPassword))) {
+        hits.increment();
+        return true;
+      }
+    }
+    misses.increment();
+    return false;
+  }
+
+  /** Remembers a successful check, replacing whatever was remembered for the nickname. */
+  void put(String nickname, String password, String encodedPassword) {
+    if (!isEnabled()) {
+      return;
+    }
+    Entry entry =
+        new Entry(digest(nickname, password, encodedPassword), System.nanoTime() + ttlNanos);
+    synchronized (entries) {
+      // re-inserted rather than replaced, so it moves to the young end
+      entries.remove(nickname);
+      entries.put(nickname, entry);
+    }
+  }
+
+  /** Forgets the nickname, for when its password changes, it is banned or it is deleted. */
+  void invalidate(String nickname) {
+    if (nickname != null && isEnabled()) {
+      synchronized (entries) {
+        entries.remove(nickname);
+      }
+    }
+  }
+
+  private byte[] digest(String nickname, String password, String encodedPassword) {
+    try {
+      Mac mac = Mac.getInstance(ALGORITHM);
+      mac.init(key);
+      mac.update(nickname.getBytes(StandardCharsets.UTF_8));
+      mac.update((byte) 0);
+      mac.update(password.getBytes(StandardCharsets.UTF_8));
+      mac.update((byte) 0);
+      return mac.doFinal(encodedPassword.getBytes(StandardCharsets.UTF_8));
+    } catch (GeneralSecurityException e) {
+      throw new IllegalStateException(ALGORITHM + " is not available", e);
+    }
+  }
+
+  /** Checks answered from the cache. */
+  public long getHits() {
+    return hits.sum();
+  }
+
+  /** Checks that had to hash the password, counted only while the cache is enabled. */
+  public long getMisses() {
+    return misses.sum();
+  }
+
+  /** Entries dropped to make room, not counting expired or invalidated ones. */
+  public long getEvictions() {
+    return evictions.sum();
+  }
+
+  public double getHitRate() {
+    long hits = getHits();
+    long total = hits + getMisses();
+    return total == 0 ? 0 : (double) hits / total;
+  }
+
+  public int getSize() {
+    synchronized (entries) {
+      return entries.size();
+    }
+  }
+}
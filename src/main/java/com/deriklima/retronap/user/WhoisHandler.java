@@ -4,7 +4,6 @@ import com.deriklima.retronap.message.*;
 import com.deriklima.retronap.message.MessageContext;
 import com.deriklima.retronap.model.User;
 import com.deriklima.retronap.model.UserLevelTypes;
-import com.deriklima.retronap.search.SharedFileService;
 import com.deriklima.retronap.session.SessionManager;
 import java.util.List;
 import lombok.extern.slf4j.Slf4j;
@@ -17,17 +16,17 @@ public class WhoisHandler extends MessageHandler {
   private final UserPersistenceStore userPersistenceStore;
   private final SessionManager sessionManager;
   private final UserChannelProvider userChannelProvider;
-  private final SharedFileService sharedFileService;
+  private final TransferCounters transferCounters;
 
   public WhoisHandler(
       UserPersistenceStore userPersistenceStore,
       SessionManager sessionManager,
       UserChannelProvider userChannelProvider,
-      SharedFileService sharedFileService) {
+      TransferCounters transferCounters) {
     this.userPersistenceStore = userPersistenceStore;
     this.sessionManager = sessionManager;
     this.userChannelProvider = userChannelProvider;
-    this.sharedFileService = sharedFileService;
+    this.transferCounters = transferCounters;
     addPreConditionChecker(new ValidMessageChecker());
     addPreConditionChecker(new UserLoggedInChecker());
   }
@@ -42,7 +41,7 @@ public class WhoisHandler extends MessageHandler {
       StringBuilder msg = new StringBuilder(160);
 
       StringBuilder channelNames = new StringBuilder(50);
-      String[] channels = userChannelProvider.getChannelNamesForUser(nickname);
+      String[] channels = userChannelProvider.getChannelNamesForUser(targetSession);
       if (channels != null) {
         boolean firstTime = true;
         for (String channelName : channels) {
@@ -70,11 +69,11 @@ public class WhoisHandler extends MessageHandler {
       msg.append(channelNames);
       msg.append("\"");
       msg.append(" \"Active.\" ");
-      msg.append(sharedFileService.countByUserId(user.getId()));
+      msg.append(targetSession.getShareCount());
       msg.append(" ");
-      msg.append(user.getDownloads());
+      msg.append(transferCounters.getDownloads(user));
       msg.append(" ");
-      msg.append(user.getUploads());
+      msg.append(transferCounters.getUploads(user));
       msg.append(" ");
       msg.append(user.getLinkSpeedValue());
       msg.append(" \"");
@@ -0,0 +1,58 @@
+package com.deriklima.retronap.util;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Runs submitted tasks one at a time and in submission order on top of a shared executor, without
+ * dedicating a thread to the caller. Used wherever work for a single connection or channel must
+ * not overlap but should not own a thread while idle.
+ */
+@Slf4j
+public class SerialExecutor implements Executor {
+  private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+  private final AtomicBoolean scheduled = new AtomicBoolean();
+  private final Executor delegate;
+
+  public SerialExecutor(Executor delegate) {
+    this.delegate = delegate;
+  }
+
+  @Override
+  public void execute(Runnable task) {
+    tasks.add(task);
+    schedule();
+  }
+
+  private void schedule() {
+    if (scheduled.compareAndSet(false, true)) {
+      try {
+        delegate.execute(this::drain);
+      } catch (RuntimeException e) {
+        scheduled.set(false);
+        throw e;
+      }
+    }
+  }
+
+  private void drain() {
+    try {
+      Runnable task;
+      while ((task = tasks.poll()) != null) {
+        try {
+          task.run();
+        } catch (RuntimeException e) {
+          log.error("Serial task failed", e);
+        }
+      }
+    } finally {
+      scheduled.set(false);
+      if (!tasks.isEmpty()) {
+        schedule();
+      }
+    }
+  }
+}
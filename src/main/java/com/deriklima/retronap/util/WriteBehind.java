@@ -0,0 +1,61 @@
+package com.deriklima.retronap.util;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Drives a write-behind buffer: a background thread of its own writes what has piled up
+ * periodically or on request, and {@link #shutdown()} writes what is left on the caller's thread.
+ * The buffer supplies a task that writes one batch and returns whether there may be more; batches
+ * are written under a lock, so a shutdown flush takes turns with a running background one instead
+ * of interleaving with it.
+ */
+public class WriteBehind {
+  private final BooleanSupplier writeBatch;
+  private final Object writeLock = new Object();
+  private final ScheduledExecutorService flusher;
+
+  /**
+   * @param threadName name of the background thread
+   * @param intervalMs delay between background flushes, 0 or less only flushes on request
+   * @param writeBatch writes one batch, returns whether there may be more to write
+   */
+  public WriteBehind(String threadName, long intervalMs, BooleanSupplier writeBatch) {
+    this.writeBatch = writeBatch;
+    this.flusher =
+        Executors.newSingleThreadScheduledExecutor(
+            Thread.ofPlatform().name(threadName).daemon().factory());
+    if (intervalMs > 0) {
+      flusher.scheduleWithFixedDelay(this::flush, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  /** Asks the background thread to flush now; returns false once it has been shut down. */
+  public boolean requestFlush() {
+    try {
+      flusher.execute(this::flush);
+      return true;
+    } catch (RejectedExecutionException e) {
+      return false;
+    }
+  }
+
+  /** Writes batches until there is nothing left, letting go of the lock between them. */
+  public void flush() {
+    boolean more = true;
+    while (more) {
+      synchronized (writeLock) {
+        more = writeBatch.getAsBoolean();
+      }
+    }
+  }
+
+  /** Stops the background thread and writes what is still pending. */
+  public void shutdown() {
+    flusher.shutdown();
+    flush();
+  }
+}
@@ -0,0 +1,3 @@
+-- Resume requests (215) look shares up by checksum and size
+CREATE INDEX idx_shared_file_md5_size
+    ON shared_file (md5signature, size);
@@ -0,0 +1,3 @@
+-- A user's hotlist is loaded by stalker id when they sign on
+CREATE INDEX idx_hotlist_entry_stalker
+    ON hotlist_entry (stalker_user_id);
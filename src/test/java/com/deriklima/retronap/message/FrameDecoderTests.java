@@ -0,0 +1,85 @@
+package com.deriklima.retronap.message;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import org.junit.jupiter.api.Test;
+
+class FrameDecoderTests {
+  private static final String SHARE =
+      "\"C:\\\\MP3\\\\Artist - Some Fairly Long Song Title.mp3\""
+          + " 0123456789abcdef0123456789abcdef 5382144 192 44100 224";
+
+  private final FrameBufferPool pool = new FrameBufferPool();
+
+  @Test
+  void decodesFramesFromStream() throws IOException {
+    byte[] wire = frames(3);
+    FrameDecoder decoder = new FrameDecoder(pool);
+    ByteArrayInputStream in = new ByteArrayInputStream(wire);
+
+    for (int i = 0; i < 3; i++) {
+      Message m = decoder.decode(in);
+      assertEquals(MessageTypes.CLIENT_SHARE_NOTIFICATION, m.getType());
+      assertEquals(SHARE, m.getDataString());
+      assertEquals(6, m.numDataStringTokens());
+      assertEquals("224", m.getDataString(5));
+    }
+    assertNull(decoder.decode(in));
+  }
+
+  @Test
+  void decodesEmptyAndSlicedFramesFromBuffer() {
+    ByteBuffer buffer = ByteBuffer.allocate(64);
+    buffer.put(new Message(MessageTypes.PING, "").toByteArray());
+    buffer.put(new Message(MessageTypes.PING, "nick").toByteArray());
+    buffer.put(new byte[] {10, 0, 1});
+    buffer.flip();
+
+    assertEquals("", FrameDecoder.decode(buffer).getDataString());
+    Message sliced = FrameDecoder.decode(buffer);
+    assertEquals("nick", sliced.getDataString());
+    assertEquals(4, sliced.getData().length);
+    assertNull(FrameDecoder.decode(buffer));
+    assertEquals(3, buffer.remaining());
+  }
+
+  @Test
+  void truncatedPayloadIsAnError() {
+    byte[] wire = frames(1);
+    FrameDecoder decoder = new FrameDecoder(pool);
+    ByteArrayInputStream in = new ByteArrayInputStream(wire, 0, wire.length - 1);
+
+    assertThrows(EOFException.class, () -> decoder.decode(in));
+  }
+
+  @Test
+  void reusesOneReceiveBufferAcrossFrames() throws IOException {
+    FrameDecoder decoder = new FrameDecoder(pool);
+    ByteArrayInputStream in = new ByteArrayInputStream(frames(3));
+
+    byte[] first = decoder.decode(in).payloadBuffer().array();
+    assertSame(first, decoder.decode(in).payloadBuffer().array());
+    assertSame(first, decoder.decode(in).payloadBuffer().array());
+
+    // the stream has run dry, so the buffer went back to the pool before blocking
+    assertNull(decoder.decode(in));
+    assertSame(first, pool.acquire().array());
+  }
+
+  private static byte[] frames(int count) {
+    byte[] frame = new Message(MessageTypes.CLIENT_SHARE_NOTIFICATION, SHARE).toByteArray();
+    ByteArrayOutputStream out = new ByteArrayOutputStream(frame.length * count);
+    for (int i = 0; i < count; i++) {
+      out.writeBytes(frame);
+    }
+    return out.toByteArray();
+  }
+}
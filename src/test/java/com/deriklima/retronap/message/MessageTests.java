@@ -0,0 +1,111 @@
+package com.deriklima.retronap.message;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import org.junit.jupiter.api.Test;
+
+class MessageTests {
+
+  @Test
+  void tokenizesQuotedAndUnquotedTokens() {
+    Message m = new Message(0, "  FILENAME CONTAINS \"blink 182\" MAX_RESULTS 100 \"\" tail");
+
+    assertEquals(7, m.numDataStringTokens());
+    assertEquals("FILENAME", m.getString(0));
+    assertEquals("blink 182", m.getString(2));
+    assertEquals("", m.getString(5));
+    assertEquals("tail", m.getDataString(6));
+    assertNull(m.getString(7));
+    assertNull(m.getString(-1));
+  }
+
+  @Test
+  void keepsLegacyQuoteQuirks() {
+    // stray quotes inside a token are dropped, a closing quote ends the token immediately,
+    // an unterminated quote runs to the end and a lone trailing quote is no token at all
+    Message m = new Message(0, "ab\"c \"x y\"z \"open end");
+
+    assertEquals(4, m.numDataStringTokens());
+    assertEquals("abc", m.getString(0));
+    assertEquals("x y", m.getString(1));
+    assertEquals("z", m.getString(2));
+    assertEquals("open end", m.getString(3));
+    assertEquals(1, new Message(0, "one \"").numDataStringTokens());
+  }
+
+  @Test
+  void parsesNumbersFromBytes() {
+    Message m = new Message(0, "5382144 -7 +3 9876543210 12a 4\"2 -");
+
+    assertEquals(5382144, m.getInt(0));
+    assertEquals(-7, m.getInt(1));
+    assertEquals(3, m.getInt(2));
+    assertEquals(9876543210L, m.getLong(3));
+    assertThrows(NumberFormatException.class, () -> m.getInt(3));
+    assertThrows(NumberFormatException.class, () -> m.getInt(4));
+    assertEquals(42, m.getInt(5));
+    assertThrows(NumberFormatException.class, () -> m.getInt(6));
+  }
+
+  @Test
+  void comparesAsciiTokensWithoutDecoding() {
+    Message m = new Message(0, "FILENAME \"MAX_RESULTS\" BIT\"RATE");
+
+    assertTrue(m.equalsAscii(0, "FILENAME"));
+    assertFalse(m.equalsAscii(0, "FILE"));
+    assertTrue(m.equalsAscii(1, "MAX_RESULTS"));
+    assertTrue(m.equalsAscii(2, "BITRATE"));
+    assertFalse(m.equalsAscii(3, "FILENAME"));
+  }
+
+  @Test
+  void decodesLatin1Tokens() {
+    byte[] data = "\"Björk - Jóga.mp3\" café".getBytes(StandardCharsets.ISO_8859_1);
+    Message m = new Message(0, data.length, data);
+
+    assertEquals("Björk - Jóga.mp3", m.getString(0));
+    assertEquals("café", m.getString(1));
+  }
+
+  @Test
+  void payloadBuilderEncodesLikeTheStringConstructor() {
+    PayloadBuilder payload = new PayloadBuilder(4);
+    Message built =
+        payload
+            .append('"')
+            .append("Björk – Jóga.mp3")
+            .append("\" ")
+            .append(0)
+            .append(' ')
+            .append(-42)
+            .append(' ')
+            .append(4294967295L)
+            .build(MessageTypes.SERVER_SEARCH_RESPONSE);
+    String text = "\"Björk – Jóga.mp3\" 0 -42 4294967295";
+    Message expected = new Message(MessageTypes.SERVER_SEARCH_RESPONSE, text);
+
+    assertArrayEquals(expected.toByteArray(), built.toByteArray());
+    assertEquals(7, payload.append(1234567).build(0).getLength());
+  }
+
+  @Test
+  void preEncodedMessagesWriteTheSameFrame() {
+    String text = "General nick Björk – Jóga";
+    Message plain = new Message(MessageTypes.SERVER_CHANNEL_PUBLIC_MESSAGE, text);
+    Message shared = Message.preEncoded(MessageTypes.SERVER_CHANNEL_PUBLIC_MESSAGE, text);
+
+    ByteBuffer buffer = ByteBuffer.allocate(shared.getFrameLength());
+    shared.writeTo(buffer);
+
+    assertArrayEquals(plain.toByteArray(), shared.toByteArray());
+    assertArrayEquals(plain.toByteArray(), buffer.array());
+    assertEquals("Björk", shared.getString(2));
+  }
+}
@@ -0,0 +1,302 @@
+package com.deriklima.retronap.message;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.deriklima.retronap.config.RetroNapConfig;
+import com.deriklima.retronap.config.RetroNapConfig.OverflowPolicy;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+class OutboundMessageQueueTests {
+  private final Deque<Runnable> writerTasks = new ArrayDeque<>();
+  private final Executor writer = writerTasks::add;
+  private final OutboundQueueMetrics metrics = new OutboundQueueMetrics();
+
+  @Test
+  void writesEverythingQueuedAsOneBatch() throws Exception {
+    RecordingSink sink = new RecordingSink();
+    OutboundMessageQueue queue = queue(sink, 0, 64 * 1024);
+    List<Message> messages = searchReply(100);
+    for (Message m : messages) {
+      queue.queueMessage(m);
+    }
+
+    assertEquals(1, writerTasks.size(), "one writer for the whole burst");
+    runWriters();
+
+    assertEquals(1, sink.writes.size());
+    assertTrue(Arrays.equals(encode(messages), sink.writes.getFirst()));
+    assertFalse(queue.hasMessages());
+  }
+
+  @Test
+  void schedulesAnotherWriterOnlyAfterDraining() throws Exception {
+    RecordingSink sink = new RecordingSink();
+    OutboundMessageQueue queue = queue(sink, 0, 64 * 1024);
+
+    queue.queueMessage(new Message(MessageTypes.PING, "a"));
+    queue.queueMessage(new Message(MessageTypes.PING, "b"));
+    runWriters();
+    queue.queueMessage(new Message(MessageTypes.PING, "c"));
+
+    assertEquals(1, writerTasks.size());
+    runWriters();
+    assertEquals(2, sink.writes.size());
+  }
+
+  @Test
+  void queuesAListOfMessagesWithOneWriter() throws Exception {
+    RecordingSink sink = new RecordingSink();
+    OutboundMessageQueue queue = queue(sink, 0, 64 * 1024);
+    List<Message> chat = List.of(chat("a"), chat("b"), chat("c"));
+
+    queue.queueMessages(chat);
+
+    assertEquals(1, writerTasks.size());
+    runWriters();
+    assertEquals(1, sink.writes.size());
+    assertTrue(Arrays.equals(encode(chat), sink.writes.getFirst()));
+  }
+
+  @Test
+  void idleTimeoutClosesTheSink() throws Exception {
+    RecordingSink sink = new RecordingSink();
+    OutboundMessageQueue queue = queue(sink, 600, 64 * 1024);
+    queue.queueMessage(new Message(MessageTypes.PING, "a"));
+    runWriters();
+
+    assertTrue(queue.checkIdle(System.nanoTime()));
+    assertFalse(queue.checkIdle(System.nanoTime() + TimeUnit.SECONDS.toNanos(601)));
+    runWriters();
+    assertTrue(sink.closed);
+    assertFalse(queue.hasMessages());
+  }
+
+  @Test
+  void gathersLargePayloadsWithoutReordering() throws Exception {
+    RecordingSink sink = new RecordingSink();
+    OutboundMessageQueue queue = queue(sink, 0, 64 * 1024);
+    List<Message> messages =
+        List.of(
+            new Message(MessageTypes.SERVER_SEARCH_RESPONSE, "small"),
+            new Message(MessageTypes.SERVER_SEARCH_RESPONSE, "x".repeat(10_000)),
+            new Message(MessageTypes.SERVER_SEARCH_RESPONSE, "y".repeat(5_000)),
+            Message.preEncoded(MessageTypes.SERVER_CHANNEL_PUBLIC_MESSAGE, "z".repeat(6_000)),
+            Message.preEncoded(MessageTypes.SERVER_CHANNEL_PUBLIC_MESSAGE, "shared"),
+            new Message(MessageTypes.SERVER_END_SEARCH_RESULTS, ""));
+    for (Message m : messages) {
+      queue.queueMessage(m);
+    }
+
+    runWriters();
+
+    assertEquals(1, sink.writes.size());
+    assertTrue(Arrays.equals(encode(messages), sink.writes.getFirst()));
+  }
+
+  @Test
+  void splitsBatchesAtTheByteBudget() throws Exception {
+    RecordingSink sink = new RecordingSink();
+    OutboundMessageQueue queue = queue(sink, 0, 1_000);
+    List<Message> messages = searchReply(100);
+    for (Message m : messages) {
+      queue.queueMessage(m);
+    }
+
+    runWriters();
+
+    assertTrue(sink.writes.size() > 1);
+    ByteArrayOutputStream all = new ByteArrayOutputStream();
+    for (byte[] write : sink.writes) {
+      assertTrue(write.length < 1_000 + 200);
+      all.writeBytes(write);
+    }
+    assertTrue(Arrays.equals(encode(messages), all.toByteArray()));
+  }
+
+  @Test
+  void dropOldestChatEvictsChatToMakeRoom() throws Exception {
+    RecordingSink sink = new RecordingSink();
+    OutboundMessageQueue queue = boundedQueue(sink, OverflowPolicy.DROP_OLDEST_CHAT);
+    queue.queueMessage(chat("first"));
+    queue.queueMessage(new Message(MessageTypes.SERVER_SEARCH_RESPONSE, "result"));
+    queue.queueMessage(chat("second"));
+
+    queue.queueMessage(chat("third"));
+    queue.queueMessage(new Message(MessageTypes.SERVER_SEARCH_RESPONSE, "late"));
+    runWriters();
+
+    List<Message> expected =
+        List.of(
+            new Message(MessageTypes.SERVER_SEARCH_RESPONSE, "result"),
+            chat("third"),
+            new Message(MessageTypes.SERVER_SEARCH_RESPONSE, "late"));
+    assertTrue(Arrays.equals(encode(expected), sink.writes.getFirst()));
+    assertEquals(2, metrics.getDroppedMessages(OverflowPolicy.DROP_OLDEST_CHAT));
+  }
+
+  @Test
+  void dropNonCriticalKeepsTheEndOfAReply() throws Exception {
+    RecordingSink sink = new RecordingSink();
+    OutboundMessageQueue queue = boundedQueue(sink, OverflowPolicy.DROP_NON_CRITICAL);
+    for (Message m : searchReply(5)) {
+      queue.queueMessage(m);
+    }
+    runWriters();
+
+    byte[] written = sink.writes.getFirst();
+    byte[] end = new Message(MessageTypes.SERVER_END_SEARCH_RESULTS, "").toByteArray();
+    assertTrue(Arrays.equals(end, Arrays.copyOfRange(written, written.length - 4, written.length)));
+    assertEquals(3, metrics.getDroppedMessages(OverflowPolicy.DROP_NON_CRITICAL));
+  }
+
+  @Test
+  void disconnectPolicyInvalidatesTheQueue() throws Exception {
+    RecordingSink sink = new RecordingSink();
+    OutboundMessageQueue queue = boundedQueue(sink, OverflowPolicy.DISCONNECT);
+    for (int i = 0; i < 3; i++) {
+      queue.queueMessage(chat("chat" + i));
+    }
+
+    assertThrows(InvalidatedQueueException.class, () -> queue.queueMessage(chat("overflow")));
+    assertTrue(queue.isInvalid());
+    assertTrue(sink.closed);
+    assertEquals(1, metrics.getDisconnects(OverflowPolicy.DISCONNECT));
+  }
+
+  @Test
+  void concurrentProducersNeverExceedTheBounds() throws Exception {
+    RetroNapConfig.Outbound settings = new RetroNapConfig.Outbound();
+    settings.setOverflowPolicy(OverflowPolicy.DROP_OLDEST_CHAT);
+    Message small = chat("x".repeat(100));
+    Message large = chat("x".repeat(10_000));
+    // the bounds are only at risk while producers race for the last free slots, so race often
+    for (int round = 0; round < 200; round++) {
+      settings.setMaxQueuedMessages(10);
+      settings.setMaxQueuedBytes(Integer.MAX_VALUE);
+      RecordingSink sink = new RecordingSink();
+      produceConcurrently(new OutboundMessageQueue(sink, writer, 0, settings, metrics), small);
+      runWriters();
+      assertTrue(written(sink) <= 10 * small.getFrameLength(), written(sink) + " bytes queued");
+
+      settings.setMaxQueuedMessages(1_000);
+      settings.setMaxQueuedBytes(100_000);
+      sink = new RecordingSink();
+      produceConcurrently(new OutboundMessageQueue(sink, writer, 0, settings, metrics), large);
+      runWriters();
+      assertTrue(written(sink) <= 100_000, written(sink) + " bytes queued");
+    }
+  }
+
+  /** Queues the message twice from each of 8 threads at once, with nothing draining the queue. */
+  private static void produceConcurrently(OutboundMessageQueue queue, Message m)
+      throws InterruptedException {
+    CountDownLatch start = new CountDownLatch(1);
+    List<Thread> producers = new ArrayList<>();
+    for (int i = 0; i < 8; i++) {
+      producers.add(
+          Thread.ofPlatform()
+              .start(
+                  () -> {
+                    try {
+                      start.await();
+                      queue.queueMessage(m);
+                      queue.queueMessage(m);
+                    } catch (InterruptedException | InvalidatedQueueException e) {
+                      throw new IllegalStateException(e);
+                    }
+                  }));
+    }
+    start.countDown();
+    for (Thread producer : producers) {
+      producer.join();
+    }
+  }
+
+  private static int written(RecordingSink sink) {
+    return sink.writes.stream().mapToInt(write -> write.length).sum();
+  }
+
+  private OutboundMessageQueue queue(FrameSink sink, int timeoutSeconds, int maxBatchBytes) {
+    RetroNapConfig.Outbound settings = new RetroNapConfig.Outbound();
+    settings.setMaxBatchBytes(maxBatchBytes);
+    return new OutboundMessageQueue(sink, writer, timeoutSeconds, settings, metrics);
+  }
+
+  private OutboundMessageQueue boundedQueue(FrameSink sink, OverflowPolicy policy) {
+    RetroNapConfig.Outbound settings = new RetroNapConfig.Outbound();
+    settings.setMaxQueuedMessages(3);
+    settings.setOverflowPolicy(policy);
+    return new OutboundMessageQueue(sink, writer, 0, settings, metrics);
+  }
+
+  private static Message chat(String text) {
+    return new Message(MessageTypes.SERVER_CHANNEL_PUBLIC_MESSAGE, "#chat nick " + text);
+  }
+
+  private static List<Message> searchReply(int results) {
+    List<Message> messages = new ArrayList<>();
+    for (int i = 0; i < results; i++) {
+      messages.add(
+          new Message(
+              MessageTypes.SERVER_SEARCH_RESPONSE,
+              "\"C:\\\\MP3\\\\song" + i + ".mp3\" 0123456789abcdef 3000000 128 44100 200 nick"
+                  + " 16777343 3"));
+    }
+    messages.add(new Message(MessageTypes.SERVER_END_SEARCH_RESULTS, ""));
+    return messages;
+  }
+
+  private static byte[] encode(List<Message> messages) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    for (Message m : messages) {
+      out.writeBytes(m.toByteArray());
+    }
+    return out.toByteArray();
+  }
+
+  private void runWriters() {
+    Runnable task;
+    while ((task = writerTasks.poll()) != null) {
+      task.run();
+    }
+  }
+
+  private static class RecordingSink implements FrameSink {
+    private final List<byte[]> writes = new ArrayList<>();
+    private boolean closed;
+
+    @Override
+    public ByteBuffer allocateBuffer(int capacity) {
+      return ByteBuffer.allocateDirect(capacity);
+    }
+
+    @Override
+    public void write(ByteBuffer[] buffers, int count) {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      for (int i = 0; i < count; i++) {
+        byte[] bytes = new byte[buffers[i].remaining()];
+        buffers[i].get(bytes);
+        out.writeBytes(bytes);
+      }
+      writes.add(out.toByteArray());
+    }
+
+    @Override
+    public void close() {
+      closed = true;
+    }
+  }
+}
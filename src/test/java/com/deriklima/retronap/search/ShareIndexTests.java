@@ -0,0 +1,157 @@
+package com.deriklima.retronap.search;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.deriklima.retronap.message.MessageContext;
+import com.deriklima.retronap.model.SearchResult;
+import com.deriklima.retronap.model.SharedFile;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+
+class ShareIndexTests {
+  private final ShareIndex index = new ShareIndex();
+  private final UUID aliceId = UUID.randomUUID();
+  private final AtomicInteger aliceLinkSpeed = new AtomicInteger(7);
+  private final MessageContext alice = owner("alice", aliceId, aliceLinkSpeed);
+
+  @Test
+  void matchesTermsByPrefix() {
+    index.add(alice, share("C:\\music\\Bill Withers - Lovely Day.mp3"));
+
+    assertEquals(1, search("lov", 10).size());
+    assertEquals(1, search("WITH", 10).size());
+    assertEquals(0, search("ovely", 10).size());
+  }
+
+  @Test
+  void shortTermsOnlyMatchWholeTerms() {
+    index.add(alice, share("C:\\music\\DJ Shadow - Midnight in a Perfect World.mp3"));
+
+    assertEquals(1, search("dj", 10).size());
+    assertEquals(1, search("a midnight", 10).size());
+    assertEquals(0, search("mi", 10).size());
+    assertEquals(0, search("sh", 10).size());
+  }
+
+  @Test
+  void requiresEveryTerm() {
+    index.add(alice, share("C:\\music\\Bill Withers - Lovely Day.mp3"));
+    index.add(alice, share("C:\\music\\Bill Withers - Ain't No Sunshine.mp3"));
+    index.add(alice, share("C:\\music\\Otis Redding - Sittin' On The Dock Of The Bay.mp3"));
+
+    assertEquals(2, search("bill", 10).size());
+    assertEquals(List.of("C:\\music\\Bill Withers - Lovely Day.mp3"), search("withers day", 10));
+    assertEquals(0, search("otis day", 10).size());
+  }
+
+  @Test
+  void reportsAShareOnceWhenSeveralOfItsTermsMatch() {
+    index.add(alice, share("C:\\music\\Love Me Do - Lovely Version.mp3"));
+
+    assertEquals(1, search("lov", 10).size());
+  }
+
+  @Test
+  void forgetsRemovedShares() {
+    index.add(alice, share("C:\\music\\Lovely Day.mp3"));
+    index.add(alice, share("C:\\music\\Lovely Rita.mp3"));
+
+    index.remove(alice, "C:\\music\\Lovely Day.mp3");
+    assertEquals(List.of("C:\\music\\Lovely Rita.mp3"), search("lovely", 10));
+    assertEquals(0, search("day", 10).size());
+
+    index.removeAll(alice);
+    assertEquals(0, search("lovely", 10).size());
+    assertEquals(0, search("rita", 10).size());
+  }
+
+  @Test
+  void keepsTheSharesOfANewSessionWhenTheOldOneEndsLate() {
+    MessageContext reconnected = owner("alice", aliceId, aliceLinkSpeed);
+    index.add(alice, share("C:\\music\\Lovely Day.mp3"));
+    index.add(reconnected, share("C:\\music\\Lovely Day.mp3"));
+    index.add(reconnected, share("C:\\music\\Lovely Rita.mp3"));
+
+    index.removeAll(alice);
+
+    assertEquals(List.of("C:\\music\\Lovely Day.mp3"), search("day", 10));
+    assertEquals(2, search("lovely", 10).size());
+  }
+
+  @Test
+  void reportsTheOwnersCurrentLinkSpeed() {
+    index.add(alice, share("C:\\music\\Lovely Day.mp3"));
+
+    aliceLinkSpeed.set(3);
+
+    List<SearchResult> results = new ArrayList<>();
+    index.search(params("lovely", 10), results::add);
+    assertEquals(3, results.getFirst().getLinkType());
+  }
+
+  @Test
+  void replacesAShareWithTheSamePath() {
+    index.add(alice, share("C:\\music\\Lovely Day.mp3"));
+    index.add(alice, share("C:\\music\\Lovely Day.mp3"));
+
+    assertEquals(1, search("lovely", 10).size());
+  }
+
+  @Test
+  void stopsAtTheLimitOrWhenTheSinkIsFull() {
+    for (int i = 0; i < 5; i++) {
+      index.add(alice, share("C:\\music\\Track " + i + ".mp3"));
+    }
+
+    assertEquals(5, search("track", 10).size());
+    assertEquals(2, search("track", 2).size());
+
+    List<SearchResult> results = new ArrayList<>();
+    index.search(params("track", 10), r -> results.add(r) && results.size() < 3);
+    assertEquals(3, results.size());
+    assertTrue(results.stream().allMatch(r -> r.getNickname().equals("alice")));
+  }
+
+  private List<String> search(String query, int maxResults) {
+    List<String> paths = new ArrayList<>();
+    index.search(params(query, maxResults), r -> paths.add(r.getShare().getAbsolutePath()));
+    return paths;
+  }
+
+  private static NewSearchParameters params(String query, int maxResults) {
+    NewSearchParameters params = new NewSearchParameters();
+    params.setSongName(query);
+    params.setMaxResults(maxResults);
+    return params;
+  }
+
+  private static SharedFile share(String path) {
+    SharedFile share = new SharedFile();
+    share.setAbsolutePath(path);
+    share.setBitrate(128);
+    return share;
+  }
+
+  /** A session that only answers what the index asks of a share's owner. */
+  private static MessageContext owner(String nickname, UUID userId, AtomicInteger linkSpeed) {
+    return (MessageContext)
+        Proxy.newProxyInstance(
+            MessageContext.class.getClassLoader(),
+            new Class<?>[] {MessageContext.class},
+            (proxy, method, args) ->
+                switch (method.getName()) {
+                  case "getNickname" -> nickname;
+                  case "getUserId" -> userId;
+                  case "getIPAddress" -> new byte[] {127, 0, 0, 1};
+                  case "getLinkSpeedValue" -> linkSpeed.get();
+                  case "hashCode" -> System.identityHashCode(proxy);
+                  case "equals" -> proxy == args[0];
+                  default -> null;
+                });
+  }
+}
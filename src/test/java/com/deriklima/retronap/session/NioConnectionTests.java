@@ -0,0 +1,243 @@
+package com.deriklima.retronap.session;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.deriklima.retronap.message.FrameBufferPool;
+import com.deriklima.retronap.message.FrameSink;
+import com.deriklima.retronap.message.Message;
+import com.deriklima.retronap.message.MessageTypes;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/** Drives a {@link NioConnection} over a real loopback socket, with a client on the other end. */
+class NioConnectionTests {
+  private static final String SHARE =
+      "\"C:\\\\MP3\\\\Artist - Some Fairly Long Song Title.mp3\""
+          + " 0123456789abcdef0123456789abcdef 5382144 192 44100 224";
+
+  private final ExecutorService dispatcher = Executors.newVirtualThreadPerTaskExecutor();
+  private final RecordingSession session = new RecordingSession();
+  private NioEventLoop loop;
+  private ServerSocketChannel server;
+  private SocketChannel client;
+  private NioConnection connection;
+
+  @BeforeEach
+  void connect() throws IOException {
+    loop = new NioEventLoop("nio-test-loop");
+    loop.start();
+    server =
+        ServerSocketChannel.open().bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+    client = SocketChannel.open();
+    // small socket buffers, so a client that stops reading backs up the server quickly
+    client.setOption(StandardSocketOptions.SO_RCVBUF, 4096);
+    client.connect(server.getLocalAddress());
+    SocketChannel accepted = server.accept();
+    accepted.setOption(StandardSocketOptions.SO_SNDBUF, 4096);
+    accepted.configureBlocking(false);
+    connection = new NioConnection(accepted, loop, session, new FrameBufferPool(), dispatcher);
+    connection.open();
+  }
+
+  @AfterEach
+  void disconnect() throws IOException {
+    client.close();
+    connection.close();
+    loop.shutdown();
+    server.close();
+    dispatcher.shutdownNow();
+  }
+
+  @Test
+  void reassemblesAFrameSplitAcrossReads() throws Exception {
+    byte[] frame = frame(SHARE);
+
+    send(Arrays.copyOfRange(frame, 0, 2));
+    Thread.sleep(50);
+    send(Arrays.copyOfRange(frame, 2, 10));
+    Thread.sleep(50);
+    send(Arrays.copyOfRange(frame, 10, frame.length));
+
+    assertEquals(List.of(SHARE), session.awaitMessages(1));
+  }
+
+  @Test
+  void dispatchesSeveralFramesFromOneRead() throws Exception {
+    ByteArrayOutputStream wire = new ByteArrayOutputStream();
+    wire.writeBytes(frame("first"));
+    wire.writeBytes(frame(""));
+    wire.writeBytes(frame("third"));
+    byte[] fourth = frame("fourth");
+    wire.write(fourth, 0, 5);
+
+    send(wire.toByteArray());
+    assertEquals(List.of("first", "", "third"), session.awaitMessages(3));
+
+    // the partial frame was kept at the start of the buffer
+    send(Arrays.copyOfRange(fourth, 5, fourth.length));
+    assertEquals(List.of("fourth"), session.awaitMessages(1));
+  }
+
+  @Test
+  void parksTheWriterUntilTheClientReads() throws Exception {
+    byte[] payload = new byte[8 * 1024 * 1024];
+    Arrays.fill(payload, (byte) 'x');
+    Future<?> write = startWrite(payload);
+
+    Thread.sleep(200);
+    assertFalse(write.isDone(), "the writer waits for the socket to drain");
+
+    ByteBuffer received = ByteBuffer.allocate(payload.length);
+    while (received.hasRemaining() && client.read(received) >= 0) {
+      // keep reading
+    }
+    write.get(5, TimeUnit.SECONDS);
+    assertTrue(Arrays.equals(payload, received.array()));
+  }
+
+  @Test
+  void wakesAParkedWriterOnClose() throws Exception {
+    Future<?> write = startWrite(new byte[8 * 1024 * 1024]);
+    Thread.sleep(200);
+    assertFalse(write.isDone());
+
+    connection.close();
+
+    ExecutionException e =
+        assertThrows(ExecutionException.class, () -> write.get(5, TimeUnit.SECONDS));
+    assertInstanceOf(ClosedChannelException.class, e.getCause());
+  }
+
+  @Test
+  void closesTheSessionOnlyAfterTheDispatchInFlight() throws Exception {
+    CountDownLatch release = new CountDownLatch(1);
+    session.dispatchGate = release;
+    ByteArrayOutputStream wire = new ByteArrayOutputStream();
+    wire.writeBytes(frame("in flight"));
+    wire.writeBytes(frame("after close"));
+    send(wire.toByteArray());
+    assertTrue(session.dispatching.await(5, TimeUnit.SECONDS));
+
+    connection.close();
+    Thread.sleep(100);
+    assertEquals(List.of("in flight"), session.events, "cleanup waits for the handler");
+
+    release.countDown();
+    assertTrue(session.closed.await(5, TimeUnit.SECONDS));
+    Thread.sleep(50);
+    assertEquals(List.of("in flight", RecordingSession.CLOSED), session.events);
+  }
+
+  @Test
+  void closesTheSessionOnceWhenTheClientHangsUp() throws Exception {
+    send(frame("bye"));
+    assertEquals(List.of("bye"), session.awaitMessages(1));
+
+    client.close();
+
+    assertTrue(session.closed.await(5, TimeUnit.SECONDS));
+    assertTrue(connection.isClosed());
+    connection.close();
+    Thread.sleep(50);
+    assertEquals(List.of("bye", RecordingSession.CLOSED), session.events);
+  }
+
+  private Future<?> startWrite(byte[] payload) throws IOException {
+    FrameSink sink = connection.openFrameSink();
+    return dispatcher.submit(
+        () -> {
+          sink.write(new ByteBuffer[] {ByteBuffer.wrap(payload)}, 1);
+          return null;
+        });
+  }
+
+  private void send(byte[] bytes) throws IOException {
+    ByteBuffer buffer = ByteBuffer.wrap(bytes);
+    while (buffer.hasRemaining()) {
+      client.write(buffer);
+    }
+  }
+
+  private static byte[] frame(String payload) {
+    return new Message(MessageTypes.CLIENT_SHARE_NOTIFICATION, payload).toByteArray();
+  }
+
+  /** A session that records what the connection hands it instead of handling it. */
+  private static class RecordingSession extends Session {
+    static final String CLOSED = "<closed>";
+
+    final List<String> events = Collections.synchronizedList(new ArrayList<>());
+    final BlockingQueue<String> messages = new LinkedBlockingQueue<>();
+    final CountDownLatch dispatching = new CountDownLatch(1);
+    final CountDownLatch closed = new CountDownLatch(1);
+    volatile CountDownLatch dispatchGate;
+
+    RecordingSession() {
+      super(null, null, null, null, null, null, null, null, null, null);
+    }
+
+    @Override
+    void open() {}
+
+    @Override
+    void dispatch(Message clientMessage) {
+      // the message is a slice of the read buffer, only valid during this call
+      String payload = clientMessage.getDataString();
+      events.add(payload);
+      messages.add(payload);
+      dispatching.countDown();
+      CountDownLatch gate = dispatchGate;
+      if (gate != null) {
+        try {
+          gate.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    }
+
+    @Override
+    void close() {
+      events.add(CLOSED);
+      closed.countDown();
+    }
+
+    List<String> awaitMessages(int count) throws InterruptedException {
+      List<String> received = new ArrayList<>();
+      for (int i = 0; i < count; i++) {
+        String payload = messages.poll(5, TimeUnit.SECONDS);
+        if (payload == null) {
+          break;
+        }
+        received.add(payload);
+      }
+      return received;
+    }
+  }
+}
@@ -0,0 +1,79 @@
+package com.deriklima.retronap.user;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.deriklima.retronap.config.RetroNapConfig;
+import org.junit.jupiter.api.Test;
+
+class VerificationCacheTests {
+
+  @Test
+  void matchesOnlyTheSamePasswordAgainstTheSameHash() {
+    VerificationCache cache = cache(60_000, 10);
+    cache.put("alice", "secret", "$2a$hash1");
+
+    assertTrue(cache.contains("alice", "secret", "$2a$hash1"));
+    assertFalse(cache.contains("alice", "Secret", "$2a$hash1"));
+    assertFalse(cache.contains("alice", "secret", "$2a$hash2"));
+    assertFalse(cache.contains("bob", "secret", "$2a$hash1"));
+    assertEquals(1, cache.getHits());
+    assertEquals(3, cache.getMisses());
+  }
+
+  @Test
+  void forgetsEntriesOnceTheyExpire() throws InterruptedException {
+    VerificationCache cache = cache(1, 10);
+    cache.put("alice", "secret", "$2a$hash1");
+
+    Thread.sleep(20);
+
+    assertFalse(cache.contains("alice", "secret", "$2a$hash1"));
+    assertEquals(0, cache.getSize());
+  }
+
+  @Test
+  void evictsTheOldestEntryBeyondItsSize() {
+    VerificationCache cache = cache(60_000, 2);
+    cache.put("alice", "secret", "$2a$hash1");
+    cache.put("bob", "secret", "$2a$hash2");
+    cache.put("alice", "secret", "$2a$hash1");
+    cache.put("carol", "secret", "$2a$hash3");
+
+    assertEquals(2, cache.getSize());
+    assertEquals(1, cache.getEvictions());
+    assertFalse(cache.contains("bob", "secret", "$2a$hash2"));
+    assertTrue(cache.contains("alice", "secret", "$2a$hash1"));
+    assertTrue(cache.contains("carol", "secret", "$2a$hash3"));
+  }
+
+  @Test
+  void forgetsInvalidatedNicknames() {
+    VerificationCache cache = cache(60_000, 10);
+    cache.put("alice", "secret", "$2a$hash1");
+    cache.put("bob", "secret", "$2a$hash2");
+
+    cache.invalidate("alice");
+
+    assertFalse(cache.contains("alice", "secret", "$2a$hash1"));
+    assertTrue(cache.contains("bob", "secret", "$2a$hash2"));
+  }
+
+  @Test
+  void remembersNothingWhenDisabled() {
+    VerificationCache cache = cache(0, 10);
+    cache.put("alice", "secret", "$2a$hash1");
+
+    assertFalse(cache.contains("alice", "secret", "$2a$hash1"));
+    assertEquals(0, cache.getSize());
+    assertEquals(0, cache.getMisses());
+  }
+
+  private static VerificationCache cache(int ttlMs, int size) {
+    RetroNapConfig config = new RetroNapConfig();
+    config.getLogin().setVerificationCacheTtlMs(ttlMs);
+    config.getLogin().setVerificationCacheSize(size);
+    return new VerificationCache(config);
+  }
+}